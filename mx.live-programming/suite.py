@@ -65,11 +65,39 @@ suite = {
                 "truffle:TRUFFLE_API",
             ],
             "annotationProcessors" : ["truffle:TRUFFLE_DSL_PROCESSOR"],
-            "javaCompliance": "8+",
+            "javaCompliance": "11+",
             "checkstyleVersion" : "8.8",
             "checkstyle": "de.hpi.swa.liveprogramming",
             "workingSets": "Live-Programming",
         },
+        "de.hpi.swa.liveprogramming.benchmarks": {
+            "subDir": "src",
+            "sourceDirs": ["src"],
+            "dependencies": [
+                "de.hpi.swa.liveprogramming",
+                "sdk:GRAAL_SDK",
+                "mx:JMH_1_21",
+            ],
+            "annotationProcessors" : ["mx:JMH_1_21"],
+            "javaCompliance": "11+",
+            "checkstyle": "de.hpi.swa.liveprogramming",
+            "workingSets": "Live-Programming",
+            "testProject": True,
+        },
+        "de.hpi.swa.liveprogramming.test": {
+            "subDir": "src",
+            "sourceDirs": ["src"],
+            "dependencies": [
+                "de.hpi.swa.liveprogramming",
+                "sdk:GRAAL_SDK",
+                "mx:JUNIT",
+            ],
+            "annotationProcessors" : ["truffle:TRUFFLE_DSL_PROCESSOR"],
+            "javaCompliance": "11+",
+            "checkstyle": "de.hpi.swa.liveprogramming",
+            "workingSets": "Live-Programming",
+            "testProject": True,
+        },
         "vscode-extension": {
             "class": "VSCodeExtensionProject",
             "dependencies": [
@@ -94,6 +122,9 @@ suite = {
             # This distribution defines a module.
             "moduleInfo" : {
                 "name" : "de.hpi.swa.liveprogramming",
+                "requires" : [
+                    "jdk.jfr",
+                ],
                 "requiresConcealed" : {
                     "org.graalvm.truffle" : [
                         "com.oracle.truffle.api.instrumentation"
@@ -101,5 +132,34 @@ suite = {
                 }
             },
         },
+        "LIVE_PROGRAMMING_TEST": {
+            "description": "Unit tests for the HPI-SWA Live Programming Features, run with: mx unittest de.hpi.swa.liveprogramming",
+            "dependencies": [
+                "de.hpi.swa.liveprogramming.test",
+            ],
+            "distDependencies": [
+                "LIVE_PROGRAMMING",
+                "tools:LSP_API",
+                "truffle:TRUFFLE_API",
+            ],
+            "exclude": [
+                "mx:JUNIT",
+            ],
+            "testDistribution": True,
+            "maven": False,
+        },
+        "LIVE_PROGRAMMING_BENCHMARKS": {
+            "description": "JMH benchmarks for the HPI-SWA Live Programming Features, run with: mx benchmark jmh-dist:LIVE_PROGRAMMING_BENCHMARKS",
+            "dependencies": [
+                "de.hpi.swa.liveprogramming.benchmarks",
+            ],
+            "distDependencies": [
+                "LIVE_PROGRAMMING",
+                "tools:LSP_API",
+                "truffle:TRUFFLE_API",
+            ],
+            "testDistribution": True,
+            "maven": False,
+        },
     },
 }
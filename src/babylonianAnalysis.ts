@@ -10,6 +10,7 @@ import * as vscode from 'vscode';
 import * as path from 'path';
 import { pathToFileURL, URLSearchParams } from 'url';
 import * as ba from './babylonianAnalysisTypes';
+import { decodeFileDeltas } from './babylonianAnalysisBinary';
 import { DecorationManager } from './babylonianAnalysisDecorations';
 import { updateObjectExplorer } from './objectExplorer';
 import { ObjectInformation } from './objectExplorerTypes';
@@ -22,7 +23,7 @@ let isEnabled = false;
 let isSelectionProbesEnabled = false;
 let isServerSupportAvailable = false;
 
-export const BABYLONIAN_ANALYSIS_RESULT_METHOD: string = 'textDocument/babylonianAnalysisResult';
+export const BABYLONIAN_ANALYSIS_DELTA_METHOD: string = 'textDocument/babylonianAnalysisDelta';
 const EXAMPLE_PREFIX = '<Example ';
 const EMOJIS = ['⏰', '🌈', '🌏', '🌽', '🍄', '🍔', '🍕', '🍙', '🍟', '🍪', '🍰', '🎁', '🎂', '🎉', '🏆', '🏠', '🐟', '🐰', '👑', '👻', '💊', '📣', '💰', '📌', '📦', '📷', '🔑', '🔥', '🔫', '🚀', '🚕', '🚁'];
 const EMOJIS_LENGTH = EMOJIS.length;
@@ -35,12 +36,19 @@ const DECORATIONS = new DecorationManager;
 let lastBabylonianTimeout: NodeJS.Timeout|null = null;
 let lastBabylonianResult: ba.BabylonianAnalysisResult;
 let lastDidChangeTimeout: NodeJS.Timeout|null = null;
+let annotationDiagnostics: vscode.DiagnosticCollection;
+let streamingEpoch: number|undefined;
+let streamingAnalysisId: number|undefined;
+let streamingSequenceNumber = 0;
+let streamingResult: ba.BabylonianAnalysisResult = { files: [] };
 
 export function initializeBabylonianAnalysis(context: vscode.ExtensionContext, graalVMExtension: vscode.Extension<GraalVMExtension>, uriHandler: UriHandler) {
 	context.subscriptions.push(vscode.commands.registerCommand('polyglot-live-programming.toggleBabylonianAnalysis', toggleBabylonianAnalysis));
 	context.subscriptions.push(vscode.commands.registerCommand('polyglot-live-programming.toggleSelectionProbes', toggleSelectionProbes));
+	context.subscriptions.push(vscode.commands.registerCommand('polyglot-live-programming.reevaluateExemplifiedFiles', reevaluateExemplifiedFiles));
 	context.subscriptions.push(vscode.workspace.onDidChangeTextDocument(handleOnDidChangeTextDocument));
 	context.subscriptions.push(vscode.window.onDidChangeTextEditorSelection(handleOnDidChangeTextEditorSelection));
+	context.subscriptions.push(annotationDiagnostics = vscode.languages.createDiagnosticCollection('babylonian-analysis'));
 	registerBabylonianAnalysisResultHandler(graalVMExtension);
 	uriHandler.onPath('/show-probe-details', showProbeDetails);
 	uriHandler.onPath('/debug-probe', debugProbe);
@@ -54,6 +62,7 @@ function handleBabylonianAnalysisResult(result : ba.BabylonianAnalysisResult, is
 	lastBabylonianResult = result;
 	DECORATIONS.clearRedundantDecorations(result);
 	for (const file of result.files) {
+		annotationDiagnostics.set(vscode.Uri.parse(file.uri), (file.diagnostics || []).map(toDiagnostic));
 		const editor = vscode.window.visibleTextEditors.filter(editor => editor.document.uri.toString() === file.uri)[0];
 		if (editor) {
 			for (const probe of file.probes) {
@@ -63,12 +72,65 @@ function handleBabylonianAnalysisResult(result : ba.BabylonianAnalysisResult, is
 			}
 		}
 	}
+	if (isFinal) {
+		vscode.window.visibleTextEditors.forEach(editor => DECORATIONS.setHeatmap(editor, result.files));
+	}
+}
+
+function handleBabylonianAnalysisDelta(delta: ba.BabylonianAnalysisDelta) {
+	if (delta.epoch !== streamingEpoch || delta.analysisId !== streamingAnalysisId) {
+		streamingEpoch = delta.epoch;
+		streamingAnalysisId = delta.analysisId;
+		streamingSequenceNumber = 0;
+		streamingResult = { files: [] };
+	}
+	if (delta.sequenceNumber <= streamingSequenceNumber) {
+		return; // Outdated delta
+	}
+	streamingSequenceNumber = delta.sequenceNumber;
+	const fileDeltas = delta.encoding === 'binary' && delta.data ? decodeFileDeltas(delta.data) : delta.files || [];
+	for (const fileDelta of fileDeltas) {
+		let file = streamingResult.files.find(f => f.uri === fileDelta.uri);
+		if (!file) {
+			file = { uri: fileDelta.uri, languageId: fileDelta.languageId, probes: [], diagnostics: fileDelta.diagnostics };
+			streamingResult.files.push(file);
+		}
+		for (const probeDelta of fileDelta.probes) {
+			let probe = file.probes.find(p => p.lineIndex === probeDelta.lineIndex && p.probeType === probeDelta.probeType);
+			if (!probe) {
+				probe = { probeType: probeDelta.probeType, lineIndex: probeDelta.lineIndex, examples: [] };
+				file.probes.push(probe);
+			}
+			for (const exampleDelta of probeDelta.examples) {
+				const exampleIndex = probe.examples.findIndex(e => e.exampleName === exampleDelta.exampleName);
+				const observedValues = exampleIndex < 0 ? [] : probe.examples[exampleIndex].observedValues;
+				observedValues.length = Math.min(observedValues.length, exampleDelta.startIndex);
+				for (const value of exampleDelta.observedValues) {
+					observedValues.push(value);
+				}
+				const example = { exampleName: exampleDelta.exampleName, observedValues: observedValues, observationCount: exampleDelta.observationCount, elisionIndex: exampleDelta.elisionIndex };
+				if (exampleIndex < 0) {
+					probe.examples.push(example);
+				} else {
+					probe.examples[exampleIndex] = example;
+				}
+			}
+		}
+	}
+	handleBabylonianAnalysisResult(streamingResult);
+}
+
+function resetStreamingResult() {
+	streamingEpoch = undefined; // The next delta starts a new analysis, even if the server restarted and reuses its id
+	streamingAnalysisId = undefined;
+	streamingSequenceNumber = 0;
+	streamingResult = { files: [] };
 }
 
 function registerBabylonianAnalysisResultHandler(graalVMExtension: vscode.Extension<GraalVMExtension>) : void {
-	graalVMExtension.exports.onClientNotification(BABYLONIAN_ANALYSIS_RESULT_METHOD, handleBabylonianAnalysisResult).then((result: boolean) => {
+	graalVMExtension.exports.onClientNotification(BABYLONIAN_ANALYSIS_DELTA_METHOD, handleBabylonianAnalysisDelta).then((result: boolean) => {
 		if (!result) {
-			console.error('Failed to register handleBabylonianAnalysisResult notification handler.');
+			console.error('Failed to register handleBabylonianAnalysisDelta notification handler.');
 		}
 	});
 }
@@ -89,9 +151,12 @@ function requestBabylonianAnalysis(document: vscode.TextDocument, selectedLine?:
 				console.timeEnd('Babylonian Analysis execution');
 				console.log(`Time to run on GraalLS backend: ${result.timeToRunMillis}ms`);
 				disposable.dispose();
-				if (result.error) {
+				if (result.superseded) {
+					return; // The newer analysis reports its result
+				} else if (result.error) {
 					vscode.window.setStatusBarMessage(`BA failed: ${result.error}`, 1000);
 				} else if (result.result) {
+					resetStreamingResult();
 					handleBabylonianAnalysisResult(result.result, true);
 				}
 			});
@@ -149,6 +214,7 @@ function toggleBabylonianAnalysis() {
 		notification = 'Babylonian Analysis enabled.';
 	} else {
 		DECORATIONS.clearAllDecorations();
+		annotationDiagnostics.clear();
 		notification = 'Babylonian Analysis disabled.';
 	}
 	vscode.window.setStatusBarMessage(notification, 3000);
@@ -163,21 +229,49 @@ function toggleSelectionProbes() {
 	}
 }
 
-function joinDisplayStrings(values: ObjectInformation[]): string {
+function reevaluateExemplifiedFiles() {
+	serverSupportAvailable().then(available => {
+		if (available) {
+			vscode.commands.executeCommand('babylonian_reset_modules').then(() => {
+				const editor = vscode.window.activeTextEditor;
+				if (isEnabled && editor && containsExemplifiedCode(editor.document)) {
+					requestBabylonianAnalysis(editor.document);
+				}
+			});
+		} else {
+			vscode.window.setStatusBarMessage('Babylonian Analysis not supported by language server.', 3000);
+		}
+	});
+}
+
+function joinDisplayStrings(example: ba.ExampleResult): string {
 	const strings: string[] = [];
-	for (const value of values) {
+	for (const value of example.observedValues) {
 		strings.push(value.displayString);
 	}
+	const elided = getNumberOfElidedValues(example);
+	if (elided > 0) {
+		const elisionText = `\u2026${elided} more\u2026`;
+		if (example.elisionIndex !== undefined) {
+			strings.splice(example.elisionIndex, 0, elisionText);
+		} else {
+			strings.push(`(${elided} more sampled)`);
+		}
+	}
 	return strings.join('\u2794');
 }
 
+function getNumberOfElidedValues(example: ba.ExampleResult): number {
+	return example.observationCount ? example.observationCount - example.observedValues.length : 0;
+}
+
 function createDecorationText(isFinalResult: boolean, probe: ba.AbstractProbe): string {
 	if (probe.examples.length === 0) {
 		return isFinalResult ? '<not reached>' : 'pending\u2026';
 	}
 	const probeTexts: string[] = [];
 	for (const example of probe.examples) {
-		probeTexts.push(`${toEmoticon(example.exampleName)} ${truncate(joinDisplayStrings(example.observedValues), 50)}`);
+		probeTexts.push(`${toEmoticon(example.exampleName)} ${truncate(joinDisplayStrings(example), 50)}`);
 	}
 	return probeTexts.join(' ');
 }
@@ -217,12 +311,13 @@ function pushProbeWithSingleObservedValue(tableData: string[][], fileResult: ba.
 	tableData[2].push(observedValue.metaSimpleName || '-');
 	tableData[3].push('');
 	tableData[4].push(observedValue.interopProperties.map(s => `*${s}*`).join(', ') || '-');
-	tableData[5].push(`${(observedValue.memberNames || []).length}`);
-	tableData[6].push(`${(observedValue.elements || []).length}`);
+	tableData[5].push(observedValue.hasMembers && !observedValue.memberNames ? '\u2026' : `${(observedValue.memberNames || []).length}`);
+	tableData[6].push(`${observedValue.elementCount !== undefined ? observedValue.elementCount : (observedValue.elements || []).length}`);
 }
 
 function pushProbeWithMultipleObservedValues(tableData: string[][], fileResult: ba.BabylonianAnalysisFileResult, lineIndex: number, example: ba.ExampleResult, maxNumberOfObservedValues: number) {
-	tableData[0].push(`${toEmoticon(example.exampleName)} ${truncate(prettifyExampleName(example.exampleName), 20)}${createDebugSuffix(fileResult, lineIndex, example)}`);
+	const elisionSuffix = getNumberOfElidedValues(example) > 0 ? ` (${example.observedValues.length} of ${example.observationCount})` : '';
+	tableData[0].push(`${toEmoticon(example.exampleName)} ${truncate(prettifyExampleName(example.exampleName), 20)}${elisionSuffix}${createDebugSuffix(fileResult, lineIndex, example)}`);
 	const numberOfObservedValues = example.observedValues.length;
 	for (let index = 0; index < maxNumberOfObservedValues; index++) {
 		let result;
@@ -236,6 +331,11 @@ function pushProbeWithMultipleObservedValues(tableData: string[][], fileResult:
 	}
 }
 
+function toDiagnostic(diagnostic: ba.AnnotationDiagnostic): vscode.Diagnostic {
+	const position = new vscode.Position(diagnostic.lineIndex, diagnostic.column);
+	return new vscode.Diagnostic(new vscode.Range(position, position), diagnostic.message, vscode.DiagnosticSeverity.Warning);
+}
+
 function createDecorationOptions(editor: vscode.TextEditor, isFinalResult: boolean, file: ba.BabylonianAnalysisFileResult, probe: ba.AbstractProbe): vscode.DecorationOptions {
 	return {
 		hoverMessage: probe.examples.length === 0 ? [] : [
@@ -280,7 +380,7 @@ function showProbeDetails(query: URLSearchParams) {
 				if (probe.lineIndex === lineIndex) {
 					for (const example of probe.examples) {
 						if (example.exampleName === exampleName && observedValueIndex < example.observedValues.length) {
-							updateObjectExplorer(example.observedValues[observedValueIndex]);
+							showObjectDetails(fileUri, lineIndex, exampleName, observedValueIndex, example.observedValues[observedValueIndex]);
 						}
 					}
 				}
@@ -289,6 +389,18 @@ function showProbeDetails(query: URLSearchParams) {
 	}
 }
 
+function showObjectDetails(fileUri: string, lineIndex: number, exampleName: string, observedValueIndex: number, info: ObjectInformation) {
+	updateObjectExplorer(info);
+	if ((info.hasMembers || info.elementCount !== undefined) && !info.memberNames && !info.elements) {
+		/* Members and elements are materialized on demand */
+		vscode.commands.executeCommand('babylonian_object_details', fileUri, lineIndex, exampleName, observedValueIndex).then((details) => {
+			if (details) {
+				updateObjectExplorer(details as ObjectInformation);
+			}
+		});
+	}
+}
+
 function debugProbe(query: URLSearchParams) {
 	const fileUri = vscode.Uri.parse(decodeURIComponent(query.get('fileUri') || ''));
 	const languageId = query.get('languageId') || '';
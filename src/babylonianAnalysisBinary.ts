@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+
+import * as ba from './babylonianAnalysisTypes';
+import { ObjectInformation } from './objectExplorerTypes';
+
+/* Decodes deltas written by de.hpi.swa.liveprogramming.types.BinaryResultCodec. */
+
+/* Interop properties in the order of their bit flags, must match the language server. */
+const INTEROP_PROPERTIES = ['boolean', 'date', 'duration', 'exception', 'instant', 'metaObject', 'null', 'number', 'pointer', 'string', 'time', 'timezone', 'executable', 'instantiable'];
+
+const VALUE_EXPRESSION = 1;
+const VALUE_DISPLAY_STRING = 1 << 1;
+const VALUE_INTEROP_PROPERTIES = 1 << 2;
+const VALUE_META_QUALIFIED_NAME = 1 << 3;
+const VALUE_META_SIMPLE_NAME = 1 << 4;
+const VALUE_HAS_MEMBERS = 1 << 5;
+const VALUE_ELEMENT_COUNT = 1 << 6;
+const VALUE_ERROR = 1 << 7;
+const VALUE_OTHER_KEYS = 1 << 8;
+const VALUE_REFERENCE = 1 << 9;
+
+const EXAMPLE_START_INDEX = 1;
+const EXAMPLE_OBSERVATION_COUNT = 1 << 1;
+const EXAMPLE_ELISION_INDEX = 1 << 2;
+
+const FILE_DIAGNOSTICS = 1;
+
+export function decodeFileDeltas(data: string): ba.BabylonianAnalysisFileDelta[] {
+	const reader = new Reader(Buffer.from(data, 'base64'));
+	const files = [];
+	const numberOfFiles = reader.readUnsigned();
+	for (let i = 0; i < numberOfFiles; i++) {
+		files.push(reader.readFile());
+	}
+	return files;
+}
+
+class Reader {
+	private position = 0;
+	private readonly strings: string[] = [];
+	private readonly values: ObjectInformation[] = [];
+
+	constructor(private readonly buffer: Buffer) { }
+
+	readUnsigned(): number {
+		let value = 0;
+		let factor = 1; // Bitwise operators would truncate to 32 bits
+		while (true) {
+			if (this.position >= this.buffer.length) {
+				throw new Error('Malformed result data');
+			}
+			const b = this.buffer[this.position++];
+			value += (b & 0x7F) * factor;
+			if ((b & 0x80) === 0) {
+				return value;
+			}
+			factor *= 128;
+		}
+	}
+
+	readString(): string {
+		const index = this.readUnsigned();
+		if (index > 0) {
+			return this.strings[index - 1];
+		}
+		const length = this.readUnsigned();
+		const string = this.buffer.toString('utf8', this.position, this.position + length);
+		this.position += length;
+		this.strings.push(string);
+		return string;
+	}
+
+	readFile(): ba.BabylonianAnalysisFileDelta {
+		const uri = this.readString();
+		const languageId = this.readString();
+		const diagnostics = (this.readUnsigned() & FILE_DIAGNOSTICS) !== 0 ? JSON.parse(this.readString()) : undefined;
+		const probes = [];
+		const numberOfProbes = this.readUnsigned();
+		for (let i = 0; i < numberOfProbes; i++) {
+			probes.push(this.readProbe());
+		}
+		return { uri: uri, languageId: languageId, probes: probes, diagnostics: diagnostics };
+	}
+
+	private readProbe(): ba.ProbeDelta {
+		const probeType = this.readString() as ba.ProbeType;
+		const lineIndex = this.readUnsigned();
+		const examples = [];
+		const numberOfExamples = this.readUnsigned();
+		for (let i = 0; i < numberOfExamples; i++) {
+			examples.push(this.readExample());
+		}
+		return { probeType: probeType, lineIndex: lineIndex, examples: examples };
+	}
+
+	private readExample(): ba.ExampleDelta {
+		const exampleName = this.readString();
+		const flags = this.readUnsigned();
+		const startIndex = (flags & EXAMPLE_START_INDEX) !== 0 ? this.readUnsigned() : 0;
+		const observationCount = (flags & EXAMPLE_OBSERVATION_COUNT) !== 0 ? this.readUnsigned() : undefined;
+		const elisionIndex = (flags & EXAMPLE_ELISION_INDEX) !== 0 ? this.readUnsigned() : undefined;
+		const observedValues = [];
+		const numberOfValues = this.readUnsigned();
+		for (let i = 0; i < numberOfValues; i++) {
+			observedValues.push(this.readValue());
+		}
+		return { exampleName: exampleName, startIndex: startIndex, observedValues: observedValues, observationCount: observationCount, elisionIndex: elisionIndex };
+	}
+
+	private readValue(): ObjectInformation {
+		const flags = this.readUnsigned();
+		if ((flags & VALUE_REFERENCE) !== 0) {
+			const index = this.readUnsigned();
+			if (index >= this.values.length) {
+				throw new Error('Malformed result data');
+			}
+			return this.values[index]; // Values are never modified, so they can be shared
+		}
+		const value: any = {};
+		this.values.push(value);
+		if ((flags & VALUE_EXPRESSION) !== 0) {
+			value.expression = this.readString();
+		}
+		if ((flags & VALUE_DISPLAY_STRING) !== 0) {
+			value.displayString = this.readString();
+		}
+		if ((flags & VALUE_INTEROP_PROPERTIES) !== 0) {
+			const interopProperties = this.readUnsigned();
+			value.interopProperties = INTEROP_PROPERTIES.filter((_, i) => (interopProperties & (1 << i)) !== 0);
+		}
+		if ((flags & VALUE_META_QUALIFIED_NAME) !== 0) {
+			value.metaQualifiedName = this.readString();
+		}
+		if ((flags & VALUE_META_SIMPLE_NAME) !== 0) {
+			value.metaSimpleName = this.readString();
+		}
+		if ((flags & VALUE_HAS_MEMBERS) !== 0) {
+			value.hasMembers = true;
+		}
+		if ((flags & VALUE_ELEMENT_COUNT) !== 0) {
+			value.elementCount = this.readUnsigned();
+		}
+		if ((flags & VALUE_ERROR) !== 0) {
+			value.error = this.readString();
+		}
+		if ((flags & VALUE_OTHER_KEYS) !== 0) {
+			Object.assign(value, JSON.parse(this.readString()));
+		}
+		return value;
+	}
+}
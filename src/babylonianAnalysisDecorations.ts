@@ -9,8 +9,11 @@
 import * as vscode from 'vscode';
 import * as ba from './babylonianAnalysisTypes';
 
+const HEATMAP_COLORS = ['rgba(255, 140, 0, 0.08)', 'rgba(255, 140, 0, 0.16)', 'rgba(255, 100, 0, 0.24)', 'rgba(255, 60, 0, 0.32)', 'rgba(255, 0, 0, 0.4)'];
+
 export class DecorationManager {
 	cache: { [key: string]: { [key: string]: { cacheIdentifier: string, decorationType: vscode.TextEditorDecorationType } } } = {};
+	heatmapTypes: vscode.TextEditorDecorationType[] = HEATMAP_COLORS.map(backgroundColor => vscode.window.createTextEditorDecorationType({ backgroundColor, isWholeLine: true }));
 
 	getDecorationType(fileUri: string, isFinalResult: boolean, probe: ba.AbstractProbe): vscode.TextEditorDecorationType {
 		const lineMap = this.cache[fileUri] = (this.cache[fileUri] || {});
@@ -77,8 +80,48 @@ export class DecorationManager {
 		});
 	}
 
+	/**
+	 * Shades each profiled line of the editor by its share of the hottest line, measured in self
+	 * time if the profiles are timed, in allocated bytes if allocations are tracked, and in hit
+	 * counts otherwise.
+	 */
+	setHeatmap(editor: vscode.TextEditor, files: ba.BabylonianAnalysisFileResult[]) {
+		const editorUri = editor.document.uri.toString();
+		const lines: { [lineIndex: number]: HeatmapLine } = {};
+		for (const file of files) {
+			for (const profile of file.profiles || []) {
+				for (const line of profile.lines.filter(l => l.uri === editorUri)) {
+					const total = lines[line.lineIndex] = (lines[line.lineIndex] || { hitCount: 0 });
+					total.hitCount += line.hitCount;
+					if (line.selfMillis !== undefined) {
+						total.selfMillis = (total.selfMillis || 0) + line.selfMillis;
+					}
+					if (line.allocationCount !== undefined && line.allocatedBytes !== undefined) {
+						total.allocationCount = (total.allocationCount || 0) + line.allocationCount;
+						total.allocatedBytes = (total.allocatedBytes || 0) + line.allocatedBytes;
+					}
+				}
+			}
+		}
+		const weight = (line: HeatmapLine) => line.selfMillis !== undefined ? line.selfMillis : line.allocatedBytes !== undefined ? line.allocatedBytes : line.hitCount;
+		const maxWeight = Math.max(0, ...Object.keys(lines).map(lineIndex => weight(lines[Number(lineIndex)])));
+		const levels: vscode.DecorationOptions[][] = this.heatmapTypes.map(() => []);
+		for (const lineIndex of Object.keys(lines).map(Number)) {
+			const line = lines[lineIndex];
+			if (maxWeight <= 0 || weight(line) <= 0 || lineIndex >= editor.document.lineCount) {
+				continue;
+			}
+			const level = Math.min(levels.length - 1, Math.floor(weight(line) / maxWeight * levels.length));
+			const hoverMessage = `${line.hitCount} statement${line.hitCount === 1 ? '' : 's'} executed` + (line.selfMillis !== undefined ? `, ${line.selfMillis.toFixed(3)}ms self time` : '') +
+				(line.allocationCount !== undefined ? `, ${line.allocationCount} object${line.allocationCount === 1 ? '' : 's'} (${line.allocatedBytes} bytes) allocated` : '');
+			levels[level].push({ range: editor.document.lineAt(lineIndex).range, hoverMessage });
+		}
+		this.heatmapTypes.forEach((decorationType, level) => editor.setDecorations(decorationType, levels[level]));
+	}
+
 	clearAllDecorations() {
 		Object.keys(this.cache).map(fileUri => this.clearDecorationsOfUri(fileUri));
+		vscode.window.visibleTextEditors.forEach(editor => this.heatmapTypes.forEach(decorationType => editor.setDecorations(decorationType, [])));
 	}
 	
 	clearRedundantDecorations(result : ba.BabylonianAnalysisResult) {
@@ -107,6 +150,13 @@ export class DecorationManager {
 	}
 }
 
+interface HeatmapLine {
+	hitCount: number;
+	selfMillis?: number;
+	allocationCount?: number;
+	allocatedBytes?: number;
+}
+
 function allAssertionsTrue(results: ba.ExampleResult[]): boolean {
 	for (const result of results) {
 		for (const value of result.observedValues) {
@@ -18,6 +18,8 @@ export enum ProbeType {
 export interface ExampleResult {
 	readonly exampleName: string;
 	readonly observedValues: ObjectInformation[];
+	readonly observationCount?: number;
+	readonly elisionIndex?: number;
 }
 
 export interface AbstractProbe {
@@ -26,18 +28,90 @@ export interface AbstractProbe {
 	readonly examples: ExampleResult[];
 }
 
+export interface AnnotationDiagnostic {
+	readonly lineIndex: number;
+	readonly column: number;
+	readonly message: string;
+}
+
+export interface LineProfileEntry {
+	readonly uri: string;
+	readonly lineIndex: number;
+	readonly hitCount: number;
+	readonly selfMillis?: number;
+	readonly allocationCount?: number;
+	readonly allocatedBytes?: number;
+}
+
+export interface ExampleLineProfile {
+	readonly exampleName: string;
+	readonly lines: LineProfileEntry[];
+	readonly allocationCount?: number;
+	readonly allocatedBytes?: number;
+}
+
 export interface BabylonianAnalysisFileResult {
 	readonly uri: string;
 	readonly languageId: string;
 	readonly probes: AbstractProbe[];
+	readonly diagnostics?: AnnotationDiagnostic[];
+	readonly profiles?: ExampleLineProfile[];
 }
 
 export interface BabylonianAnalysisResult {
 	readonly files: BabylonianAnalysisFileResult[];
 }
 
+export interface ExampleDelta {
+	readonly exampleName: string;
+	readonly startIndex: number;
+	readonly observedValues: ObjectInformation[];
+	readonly observationCount?: number;
+	readonly elisionIndex?: number;
+}
+
+export interface ProbeDelta {
+	readonly probeType: ProbeType;
+	readonly lineIndex: number;
+	readonly examples: ExampleDelta[];
+}
+
+export interface BabylonianAnalysisFileDelta {
+	readonly uri: string;
+	readonly languageId: string;
+	readonly probes: ProbeDelta[];
+	readonly diagnostics?: AnnotationDiagnostic[];
+}
+
+export interface BabylonianAnalysisDelta {
+	readonly epoch: number;
+	readonly analysisId: number;
+	readonly sequenceNumber: number;
+	readonly files?: BabylonianAnalysisFileDelta[];
+	readonly encoding?: 'binary';
+	readonly data?: string;
+}
+
+export interface ExampleMetrics {
+	readonly exampleName: string;
+	readonly argumentParsingMillis: number;
+	readonly executionMillis: number;
+	readonly captureMillis: number;
+	readonly probeHits: number;
+}
+
+export interface BabylonianAnalysisMetrics {
+	readonly totalMillis: number;
+	readonly phaseMillis: { [phase: string]: number };
+	readonly probeHits: number;
+	readonly bytesSerialized?: number;
+	readonly examples: ExampleMetrics[];
+}
+
 export interface BabylonianAnalysisTerminationResult {
 	readonly timeToRunMillis: number;
 	readonly result?: BabylonianAnalysisResult;
 	readonly error?: string;
+	readonly superseded?: boolean;
+	readonly metrics?: BabylonianAnalysisMetrics;
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.truffle.api.source.Source;
+
+import de.hpi.swa.liveprogramming.AnnotationIndex.Annotation;
+
+/**
+ * Scanning of large synthetic sources, with and without annotations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationIndexBenchmark {
+    @Param({"1000", "100000"}) int lineCount;
+    @Param({"true", "false"}) boolean isAnnotated;
+
+    private Source source;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i * 10 < lineCount; i++) {
+            if (isAnnotated) {
+                builder.append("// <Example :name=\"example").append(i).append("\" n=\"").append(i).append("\" />\n");
+            } else {
+                builder.append("// Sums up all numbers below n\n");
+            }
+            builder.append("function sum").append(i).append("(n) {\n");
+            builder.append("    let total = 0;\n");
+            builder.append("    for (let i = 0; i < n; i++) {\n");
+            builder.append(isAnnotated ? "        // <Probe :expression=\"total\" />\n" : "        // Add next number\n");
+            builder.append("        total += i;\n");
+            builder.append("    }\n");
+            builder.append(isAnnotated ? "    // <Assertion :expression=\"total >= 0\" />\n" : "    // Total is never negative\n");
+            builder.append("    return total;\n");
+            builder.append("}\n");
+        }
+        source = Source.newBuilder("js", builder.toString(), "benchmark.js").build();
+    }
+
+    @Benchmark
+    public ArrayList<Annotation> scanDocument() {
+        return AnnotationIndex.scanDocument(source);
+    }
+}
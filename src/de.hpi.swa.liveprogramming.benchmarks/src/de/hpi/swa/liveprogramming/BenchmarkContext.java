@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.tools.api.lsp.LSPCommand;
+import org.graalvm.tools.api.lsp.LSPExtension;
+import org.graalvm.tools.api.lsp.LSPServerAccessor;
+
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Polyglot context with the Babylonian analysis extension for benchmarks. The context stays
+ * entered by the thread that created it until it is closed, so that benchmarks can evaluate
+ * guest code and run analyses through the environment of the extension, just like the language
+ * server does.
+ */
+final class BenchmarkContext implements AutoCloseable, LSPServerAccessor {
+    private final Context context;
+    private final BabylonianAnalysisExtension extension;
+    private final HashMap<URI, Source> openSources = new HashMap<>();
+    private int notificationCount;
+
+    /**
+     * Creates a context with the given options of the extension (without the
+     * <code>babylonian-analysis-lsp-extension.</code> prefix).
+     */
+    BenchmarkContext(Map<String, String> extensionOptions) {
+        Context.Builder builder = Context.newBuilder().allowAllAccess(true).allowExperimentalOptions(true);
+        for (Map.Entry<String, String> entry : extensionOptions.entrySet()) {
+            builder.option(BabylonianAnalysisExtension.ID + "." + entry.getKey(), entry.getValue());
+        }
+        context = builder.build();
+        extension = (BabylonianAnalysisExtension) context.getEngine().getInstruments().get(BabylonianAnalysisExtension.ID).lookup(LSPExtension.class);
+        context.enter();
+    }
+
+    Object eval(String languageId, String code) throws IOException {
+        return getEnv().parse(Source.newBuilder(languageId, code, "<benchmark>").build()).call();
+    }
+
+    Env getEnv() {
+        return extension.getEnv();
+    }
+
+    /**
+     * Opens a document as if it was opened in the editor.
+     */
+    void open(Source source) {
+        openSources.put(source.getURI(), source);
+    }
+
+    LSPCommand getCommand(String name) {
+        for (LSPCommand command : extension.getCommands()) {
+            if (command.getName().equals(name)) {
+                return command;
+            }
+        }
+        throw new IllegalArgumentException("Unknown command " + name);
+    }
+
+    int getNotificationCount() {
+        return notificationCount;
+    }
+
+    public void sendCustomNotification(String method, Object params) {
+        notificationCount++; // Notifications are not sent anywhere
+    }
+
+    public Map<URI, String> getOpenFileURI2LangId() {
+        HashMap<URI, String> languageIds = new HashMap<>();
+        for (Source source : openSources.values()) {
+            languageIds.put(source.getURI(), source.getLanguage());
+        }
+        return languageIds;
+    }
+
+    public Source getSource(URI uri) {
+        return openSources.get(uri);
+    }
+
+    public void close() {
+        context.leave();
+        context.close();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.types.ObjectInformation;
+
+/**
+ * Recording of observed values of different kinds, with and without materializing their details.
+ * Requires JavaScript.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectInformationBenchmark {
+    private BenchmarkContext context;
+    private Object string;
+    private Object largeArray;
+    private Object object;
+
+    @Setup
+    public void setup() throws IOException {
+        context = new BenchmarkContext(Collections.emptyMap());
+        string = context.eval("js", "'Hello World'");
+        largeArray = context.eval("js", "Array.from({length: 100000}, (_, i) => i)");
+        object = context.eval("js", "({number: 42, string: 'text', array: [1, 2, 3], nested: {a: {b: {c: null}}}})");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ObjectInformation createPrimitive() {
+        return ObjectInformation.create("x", 42);
+    }
+
+    @Benchmark
+    public ObjectInformation createString() {
+        return ObjectInformation.create("x", string);
+    }
+
+    @Benchmark
+    public ObjectInformation createLargeArray() {
+        return ObjectInformation.create("x", largeArray);
+    }
+
+    @Benchmark
+    public ObjectInformation createObject() {
+        return ObjectInformation.create("x", object);
+    }
+
+    @Benchmark
+    public JSONObject materializeLargeArray() {
+        return ObjectInformation.create("x", largeArray).materialize();
+    }
+
+    @Benchmark
+    public JSONObject materializeObject() {
+        return ObjectInformation.create("x", object).materialize();
+    }
+}
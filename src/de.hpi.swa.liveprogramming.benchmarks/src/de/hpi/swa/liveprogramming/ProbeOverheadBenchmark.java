@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.tools.api.lsp.LSPCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Complete analyses of a document with an example running a loop, with and without a probe in
+ * the loop body, in JavaScript and Python. Results are never reused, so that every analysis runs
+ * the example again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeOverheadBenchmark {
+    private static final String JS_SOURCE = "// <Example :name=\"loop\" n=\"100000\" />\n" +
+                    "function sum(n) {\n" +
+                    "    let total = 0;\n" +
+                    "    for (let i = 0; i < n; i++) {\n" +
+                    "        %s\n" +
+                    "        total += i;\n" +
+                    "    }\n" +
+                    "    return total;\n" +
+                    "}\n";
+    private static final String PYTHON_SOURCE = "# <Example :name=\"loop\" n=\"100000\" />\n" +
+                    "def sum(n):\n" +
+                    "    total = 0\n" +
+                    "    for i in range(n):\n" +
+                    "        %s\n" +
+                    "        total += i\n" +
+                    "    return total\n";
+
+    @Param({"js", "python"}) String languageId;
+    @Param({"true", "false"}) boolean isProbed;
+
+    private BenchmarkContext context;
+    private LSPCommand command;
+    private List<Object> arguments;
+
+    @Setup
+    public void setup() {
+        HashMap<String, String> options = new HashMap<>();
+        options.put("Incremental", "false");
+        options.put("ResultCache", "false");
+        context = new BenchmarkContext(options);
+        boolean isJavaScript = languageId.equals("js");
+        String comment = (isJavaScript ? "// " : "# ") + (isProbed ? "<Probe :expression=\"total\" />" : "Add next number");
+        URI uri = URI.create("file:///benchmark/loop." + (isJavaScript ? "js" : "py"));
+        context.open(Source.newBuilder(languageId, String.format(isJavaScript ? JS_SOURCE : PYTHON_SOURCE, comment), uri.getPath()).uri(uri).build());
+        command = context.getCommand("babylonian_analysis");
+        arguments = Collections.singletonList(uri.toString());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object analyze() {
+        return command.execute(context, context.getEnv(), arguments);
+    }
+}
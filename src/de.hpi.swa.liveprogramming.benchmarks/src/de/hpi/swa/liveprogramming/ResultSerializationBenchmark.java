@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.types.AbstractProbe.OrphanProbe;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+import de.hpi.swa.liveprogramming.types.BinaryResultCodec;
+import de.hpi.swa.liveprogramming.types.ObjectInformation;
+import de.hpi.swa.liveprogramming.types.ObservationLimit;
+
+/**
+ * Serialization of large results with 10 files, each with the given number of probes observing
+ * the given number of values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultSerializationBenchmark {
+    private static final int FILE_COUNT = 10;
+
+    @Param({"10", "100"}) int probesPerFile;
+    @Param({"100", "1000"}) int valuesPerProbe;
+
+    private BabylonianAnalysisResult result;
+
+    @Setup
+    public void setup() {
+        result = new BabylonianAnalysisResult(ObservationLimit.UNLIMITED);
+        for (int i = 0; i < FILE_COUNT; i++) {
+            BabylonianAnalysisFileResult file = result.getOrCreateFile(URI.create("file:///benchmark/file" + i + ".js"), "js");
+            for (int lineNumber = 1; lineNumber <= probesPerFile; lineNumber++) {
+                ArrayList<ObjectInformation> values = new ArrayList<>();
+                for (int j = 0; j < valuesPerProbe; j++) {
+                    values.add(j % 2 == 0 ? ObjectInformation.create("x", j) : ObjectInformation.create("x", "value" + j));
+                }
+                OrphanProbe probe = new OrphanProbe(null, lineNumber);
+                file.addProbe(lineNumber, probe);
+                probe.addObservedValues("example", values, valuesPerProbe);
+            }
+        }
+    }
+
+    @Benchmark
+    public JSONObject toJSON() {
+        return result.toJSON();
+    }
+
+    @Benchmark
+    public String toJSONString() {
+        return result.toJSON().toString();
+    }
+
+    @Benchmark
+    public byte[] toBinary() {
+        BinaryResultCodec.Writer writer = new BinaryResultCodec.Writer();
+        for (BabylonianAnalysisFileResult file : result.getFileResults()) {
+            writer.writeFile(file.toJSON());
+        }
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lexing of the attributes of a single tag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagAttributeLexerBenchmark {
+    @Param({"// <Probe />", "// <Example :name=\"example\" numbers=\"[1, 2, 3]\" options=\"{verbose: true}\" text='quoted \"text\"' />"}) String line;
+
+    @Benchmark
+    public LinkedHashMap<String, String> getAttributesOrNull() {
+        return AnnotationIndex.getAttributesOrNull(new TagAttributeLexer(line, line.indexOf('<'), line.length()));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.ProbeType;
+import de.hpi.swa.liveprogramming.types.ObservationLimit;
+
+public class AnnotationIndexTest {
+    private static final URI URI = java.net.URI.create("file:///test.js");
+
+    @Test
+    public void testInvalidExampleIsRescannedWhenFunctionLineChanges() {
+        AnnotationIndex index = new AnnotationIndex();
+        JSONObject before = populate(index, "// <Example :name=\"e\" x=\"1\" />\nfunction foo(y) {\n  return y;\n}\n");
+        assertTrue(before.has("diagnostics"));
+        JSONObject after = assertPatchedEqualsFresh(index, "// <Example :name=\"e\" x=\"1\" />\nfunction foo(x) {\n  return x;\n}\n");
+        assertFalse(after.has("diagnostics"));
+        assertEquals(ProbeType.EXAMPLE, after.getJSONArray("probes").getJSONObject(0).get("probeType"));
+    }
+
+    @Test
+    public void testPendingProbeIsResolvedWhenTextIsAppended() {
+        AnnotationIndex index = new AnnotationIndex();
+        JSONObject before = populate(index, "function foo(x) {\n  // <Probe />\n");
+        assertEquals(0, before.getJSONArray("probes").length());
+        JSONObject after = assertPatchedEqualsFresh(index, "function foo(x) {\n  // <Probe />\n  return x;\n}\n");
+        JSONArray probes = after.getJSONArray("probes");
+        assertEquals(1, probes.length());
+        assertEquals(ProbeType.PROBE, probes.getJSONObject(0).get("probeType"));
+        assertEquals(1, probes.getJSONObject(0).getInt("lineIndex"));
+    }
+
+    @Test
+    public void testPendingExampleIsResolvedWhenFunctionIsAppended() {
+        AnnotationIndex index = new AnnotationIndex();
+        populate(index, "// <Example :name=\"e\" x=\"1\" />\n");
+        JSONObject after = assertPatchedEqualsFresh(index, "// <Example :name=\"e\" x=\"1\" />\nfunction foo(x) {\n  return x;\n}\n");
+        assertEquals(1, after.getJSONArray("probes").length());
+    }
+
+    @Test
+    public void testPatchedEqualsFresh() {
+        String[] versions = new String[]{
+                        "function foo(x) {\n  // <Probe />\n  let y = x + 1;\n  // <Assertion expected=\"2\" />\n  return y;\n}\n",
+                        "// <Example :name=\"a\" x=\"1\" />\nfunction foo(x) {\n  // <Probe />\n  let y = x + 1;\n  // <Assertion expected=\"2\" />\n  return y;\n}\n",
+                        "\n\n// <Example :name=\"a\" x=\"1\" />\nfunction foo(x) {\n  // <Probe />\n  let y = x + 1;\n  // <Assertion expected=\"2\" />\n  return y;\n}\n",
+                        "\n\n// <Example :name=\"a\" x=\"1\" />\nfunction foo(x) {\n  // <Probe />\n\n  let y = x + 1;\n  return y;\n}\n",
+                        "\n\n// <Example :name=\"a\" x=\"1\" />\n// <Example :name=\"b\" x=\"2\" />\nfunction foo(x) {\n  // <Probe />\n\n  let y = x + 1;\n  return y;\n}\n",
+                        "\n\n// <Example :name=\"a\" x=\"1\" />\n// <Example :name=\"b\" />\nfunction foo(x) {\n  // <Probe \n\n  let y = x + 1;\n  return y;\n}\n",
+                        "// <Example :name=\"b\" x=\"2\" />\nfunction foo(x, z) {\n  return x;\n}\n// <Probe />\n",
+                        "function foo(x) {\n  return x;\n}\n",
+        };
+        AnnotationIndex index = new AnnotationIndex();
+        populate(index, versions[0]);
+        for (int i = 1; i < versions.length; i++) {
+            assertPatchedEqualsFresh(index, versions[i]);
+        }
+        for (int i = versions.length - 2; i >= 0; i--) {
+            assertPatchedEqualsFresh(index, versions[i]);
+        }
+    }
+
+    private static JSONObject assertPatchedEqualsFresh(AnnotationIndex index, String text) {
+        JSONObject patched = populate(index, text);
+        JSONObject fresh = populate(new AnnotationIndex(), text);
+        assertTrue("patched: " + patched + "\nfresh:   " + fresh, fresh.similar(patched));
+        return patched;
+    }
+
+    private static JSONObject populate(AnnotationIndex index, String text) {
+        Source source = Source.newBuilder("js", text, "test.js").build();
+        BabylonianAnalysisResult result = new BabylonianAnalysisResult(ObservationLimit.UNLIMITED);
+        index.populate(URI, source, result.getOrCreateFile(URI, source.getLanguage()));
+        return result.getOrCreateFile(URI, source.getLanguage()).toJSON();
+    }
+}
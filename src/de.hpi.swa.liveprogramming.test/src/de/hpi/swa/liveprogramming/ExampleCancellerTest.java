@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.GenerateWrapper;
+import com.oracle.truffle.api.instrumentation.InstrumentableNode;
+import com.oracle.truffle.api.instrumentation.ProbeNode;
+import com.oracle.truffle.api.instrumentation.ProvidedTags;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.api.instrumentation.Tag;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RootNode;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+public class ExampleCancellerTest {
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private ScheduledExecutorService timer;
+    private Context context;
+    private ExampleCanceller canceller;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        context = Context.create();
+        TruffleInstrument.Env env = context.getEngine().getInstruments().get(CancellerTestInstrument.ID).lookup(CancellerTestInstrument.class).env;
+        canceller = ExampleCanceller.attach(env, timer);
+    }
+
+    @After
+    public void tearDown() {
+        canceller.dispose();
+        context.close(true);
+        timer.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void testLaterExampleIsStoppedInFunctionOfEarlierExample() {
+        Value function = context.eval(CancellerTestLanguage.ID, "function");
+        runExample(function, false);
+        assertStopped(function);
+    }
+
+    @Test(timeout = 10000)
+    public void testExampleIsStoppedInFunctionCalledWhileIdle() {
+        Value function = context.eval(CancellerTestLanguage.ID, "function");
+        function.execute(false);
+        assertStopped(function);
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelledExampleIsStopped() {
+        Value function = context.eval(CancellerTestLanguage.ID, "function");
+        runExample(function, false);
+        ExampleBudget budget = new ExampleBudget(0, 0, System.nanoTime() + 60_000_000_000L);
+        timer.schedule(budget::cancel, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        canceller.startExample(budget);
+        try {
+            function.execute(true);
+            fail("Cancelled example was not stopped");
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("superseded"));
+        } finally {
+            canceller.stopExample();
+        }
+    }
+
+    private void runExample(Value function, boolean loopForever) {
+        canceller.startExample(new ExampleBudget(TIMEOUT_MILLIS, 0, System.nanoTime() + 60_000_000_000L));
+        try {
+            function.execute(loopForever);
+        } finally {
+            canceller.stopExample();
+        }
+    }
+
+    private void assertStopped(Value function) {
+        try {
+            runExample(function, true);
+            fail("Overdue example was not stopped");
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeded its budget"));
+        }
+    }
+
+    @TruffleInstrument.Registration(id = CancellerTestInstrument.ID, name = "Example Canceller Test", services = CancellerTestInstrument.class)
+    public static final class CancellerTestInstrument extends TruffleInstrument {
+        static final String ID = "examplecancellertest-instrument";
+
+        private Env env;
+
+        @Override
+        protected void onCreate(Env instrumentEnv) {
+            this.env = instrumentEnv;
+            instrumentEnv.registerService(this);
+        }
+    }
+
+    /**
+     * Language whose only program is a function that executes a statement once, or forever if its
+     * argument is <code>true</code>.
+     */
+    @TruffleLanguage.Registration(id = CancellerTestLanguage.ID, name = "Example Canceller Test")
+    @ProvidedTags(StandardTags.StatementTag.class)
+    public static final class CancellerTestLanguage extends TruffleLanguage<Object> {
+        static final String ID = "examplecancellertest";
+
+        @Override
+        protected Object createContext(Env env) {
+            return new Object();
+        }
+
+        @Override
+        protected CallTarget parse(ParsingRequest request) {
+            CallTarget function = Truffle.getRuntime().createCallTarget(new FunctionRootNode(this, request.getSource()));
+            return Truffle.getRuntime().createCallTarget(RootNode.createConstantNode(new FunctionObject(function)));
+        }
+    }
+
+    @ExportLibrary(InteropLibrary.class)
+    static final class FunctionObject implements TruffleObject {
+        final CallTarget callTarget;
+
+        FunctionObject(CallTarget callTarget) {
+            this.callTarget = callTarget;
+        }
+
+        @ExportMessage
+        boolean isExecutable() {
+            return true;
+        }
+
+        @ExportMessage
+        Object execute(Object[] arguments) {
+            return callTarget.call(arguments);
+        }
+    }
+
+    private static final class FunctionRootNode extends RootNode {
+        @Child private StatementNode statement;
+
+        FunctionRootNode(CancellerTestLanguage language, Source source) {
+            super(language);
+            this.statement = new StatementNodeImpl(source.createSection(1));
+        }
+
+        @Override
+        public Object execute(VirtualFrame frame) {
+            boolean loopForever = (Boolean) frame.getArguments()[0];
+            do {
+                statement.execute(frame);
+            } while (loopForever);
+            return true;
+        }
+    }
+
+    @GenerateWrapper
+    abstract static class StatementNode extends Node implements InstrumentableNode {
+        abstract Object execute(VirtualFrame frame);
+
+        public boolean isInstrumentable() {
+            return true;
+        }
+
+        public WrapperNode createWrapper(ProbeNode probe) {
+            return new StatementNodeWrapper(this, probe);
+        }
+
+        public boolean hasTag(Class<? extends Tag> tag) {
+            return tag == StandardTags.StatementTag.class;
+        }
+    }
+
+    static final class StatementNodeImpl extends StatementNode {
+        private final SourceSection sourceSection;
+
+        StatementNodeImpl(SourceSection sourceSection) {
+            this.sourceSection = sourceSection;
+        }
+
+        @Override
+        public SourceSection getSourceSection() {
+            return sourceSection;
+        }
+
+        @Override
+        Object execute(VirtualFrame frame) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.oracle.truffle.api.source.Source;
+
+public class SourceDiffTest {
+
+    @Test
+    public void testIdenticalSources() {
+        assertNull(diff("a\nb\n", "a\nb\n"));
+    }
+
+    @Test
+    public void testChangedLine() {
+        SourceDiff diff = diff("a\nb\nc\n", "a\nX\nc\n");
+        assertHunk(diff, 2, 2, 2);
+        assertEquals(1, diff.mapLine(1));
+        assertEquals(-1, diff.mapLine(2));
+        assertEquals(3, diff.mapLine(3));
+        assertTrue(diff.intersects(2, 2));
+        assertFalse(diff.intersects(3, 3));
+        assertTrue(diff.isContainedIn(1, 2));
+        assertFalse(diff.isContainedIn(3, 3));
+    }
+
+    @Test
+    public void testInsertedLine() {
+        SourceDiff diff = diff("a\nb\n", "a\nX\nb\n");
+        assertHunk(diff, 2, 1, 2);
+        assertEquals(1, diff.mapLine(1));
+        assertEquals(3, diff.mapLine(2));
+        assertTrue(diff.intersects(1, 2));
+        assertFalse(diff.intersects(2, 2));
+        assertFalse(diff.intersects(1, 1));
+        assertTrue(diff.isContainedIn(1, 2));
+    }
+
+    @Test
+    public void testDeletedLine() {
+        SourceDiff diff = diff("a\nX\nb\n", "a\nb\n");
+        assertHunk(diff, 2, 2, 1);
+        assertEquals(-1, diff.mapLine(2));
+        assertEquals(2, diff.mapLine(3));
+    }
+
+    @Test
+    public void testAppendedLines() {
+        SourceDiff diff = diff("a\nb\n", "a\nb\nc\nd\n");
+        assertHunk(diff, 3, 2, 4);
+        assertEquals(2, diff.mapLine(2));
+    }
+
+    @Test
+    public void testAllChangedLinesContain() {
+        assertTrue(diff("a\n// <Probe />\nb\n", "a\n// <Probe x=\"1\" />\nb\n").allChangedLinesContain("<Probe "));
+        assertFalse(diff("a\n// <Probe />\nb\n", "a\nc\nb\n").allChangedLinesContain("<Probe "));
+    }
+
+    private static void assertHunk(SourceDiff diff, int firstChangedLine, int oldLastChangedLine, int newLastChangedLine) {
+        assertEquals(firstChangedLine, diff.getFirstChangedLine());
+        assertEquals(oldLastChangedLine, diff.getOldLastChangedLine());
+        assertEquals(newLastChangedLine, diff.getNewLastChangedLine());
+    }
+
+    private static SourceDiff diff(String oldText, String newText) {
+        return SourceDiff.computeOrNull(Source.newBuilder("js", oldText, "old.js").build(), Source.newBuilder("js", newText, "new.js").build());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+public class TagAttributeLexerTest {
+
+    @Test
+    public void testAttributes() {
+        LinkedHashMap<String, String> attributes = attributesOrNull("// <Example :name=\"foo\" a='1' b = \"x y\" />");
+        assertEquals("{:name=foo, a=1, b=x y}", attributes.toString());
+    }
+
+    @Test
+    public void testNoAttributes() {
+        assertTrue(attributesOrNull("// <Probe />").isEmpty());
+        assertTrue(attributesOrNull("// <Probe>").isEmpty());
+    }
+
+    @Test
+    public void testEntities() {
+        assertEquals("a < b && \"c\" 'A' &unknown; &", attributesOrNull("<Assertion expression=\"a &lt; b &amp;&amp; &quot;c&quot; &apos;&#65;&#x27; &unknown; &\" />").get("expression"));
+    }
+
+    @Test
+    public void testTagEndsAtEndOffset() {
+        String text = "// <Probe a=\"1\"\n/>";
+        TagAttributeLexer lexer = new TagAttributeLexer(text, text.indexOf('<'), text.indexOf('\n'));
+        assertTrue(lexer.next());
+        assertFalse(lexer.next());
+        assertFalse(lexer.isTerminated());
+        assertEquals("Missing '>' at end of tag", lexer.getErrorMessage());
+        assertEquals(text.indexOf('\n'), lexer.getErrorOffset());
+    }
+
+    @Test
+    public void testErrors() {
+        assertError("// <Probe a=\"1\" ", "Missing '>' at end of tag", 16);
+        assertError("// <Probe a=\"1\" / >", "Expected '>' after '/'", 17);
+        assertError("// <Probe 1=\"1\" />", "Unexpected character '1' in tag", 10);
+        assertError("// <Probe a />", "Expected '=' after attribute 'a'", 12);
+        assertError("// <Probe a=1 />", "Expected quoted value for attribute 'a'", 12);
+        assertError("// <Probe a=\"1 />", "Unterminated value of attribute 'a'", 12);
+        assertError("// <Probe a=\"1\" a=\"2\" />", "Duplicate attribute 'a'", 16);
+    }
+
+    private static void assertError(String line, String message, int offset) {
+        TagAttributeLexer lexer = new TagAttributeLexer(line, line.indexOf('<'), line.length());
+        assertNull(AnnotationIndex.getAttributesOrNull(lexer));
+        assertEquals(message, lexer.getErrorMessage());
+        assertEquals(offset, lexer.getErrorOffset());
+    }
+
+    private static LinkedHashMap<String, String> attributesOrNull(String line) {
+        TagAttributeLexer lexer = new TagAttributeLexer(line, line.indexOf('<'), line.length());
+        LinkedHashMap<String, String> attributes = AnnotationIndex.getAttributesOrNull(lexer);
+        assertNull(lexer.getErrorMessage());
+        return attributes;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.types.AbstractProbe.AssertionProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.StatementProbe;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+
+public class BabylonianAnalysisResultTest {
+    private static final URI URI = java.net.URI.create("file:///test.js");
+
+    @Test
+    public void testAnnotatedProbeIsFoundByLineSentToClient() {
+        BabylonianAnalysisResult result = new BabylonianAnalysisResult(ObservationLimit.UNLIMITED);
+        BabylonianAnalysisFileResult file = result.getOrCreateFile(URI, "js");
+        /* Probes are triggered by the statement after their annotation. */
+        StatementProbe probe = new StatementProbe("e", 2);
+        AssertionProbe assertion = new AssertionProbe("e", 4, "2", true);
+        file.addProbe(3, probe);
+        file.addProbe(5, assertion);
+        probe.addObservedValue(value("1"));
+        probe.addObservedValue(value("2"));
+        assertion.addObservedValue(value("3"));
+
+        JSONArray probesJSON = file.toJSON().getJSONArray("probes");
+        assertEquals(2, probesJSON.length());
+        for (int i = 0; i < probesJSON.length(); i++) {
+            JSONObject probeJSON = probesJSON.getJSONObject(i);
+            JSONArray observedValues = probeJSON.getJSONArray("examples").getJSONObject(0).getJSONArray("observedValues");
+            AbstractProbe found = file.getAnnotatedProbeOrNull(probeJSON.getInt("lineIndex") + 1);
+            for (int j = 0; j < observedValues.length(); j++) {
+                assertEquals(observedValues.getJSONObject(j).getString("displayString"), found.getObservedValuesOrNull("e").get(j).getJSON().getString("displayString"));
+            }
+        }
+        assertNull(file.getAnnotatedProbeOrNull(3));
+    }
+
+    private static ObjectInformation value(String displayString) {
+        JSONObject json = new JSONObject();
+        json.put("displayString", displayString);
+        return new ObjectInformation(json);
+    }
+}
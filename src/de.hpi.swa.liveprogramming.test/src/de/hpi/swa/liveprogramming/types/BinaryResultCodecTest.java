@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+public class BinaryResultCodecTest {
+
+    @Test
+    public void testUnsignedAndStrings() {
+        BinaryResultCodec.Writer writer = new BinaryResultCodec.Writer();
+        long[] numbers = new long[]{0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE};
+        for (long number : numbers) {
+            writer.writeUnsigned(number);
+        }
+        writer.writeString("\u00e4\u00f6\u00fc \u20ac");
+        writer.writeString("");
+        writer.writeString("\u00e4\u00f6\u00fc \u20ac");
+        BinaryResultCodec.Reader reader = new BinaryResultCodec.Reader(ByteBuffer.wrap(writer.toByteArray()));
+        for (long number : numbers) {
+            assertEquals(number, reader.readUnsigned());
+        }
+        assertEquals("\u00e4\u00f6\u00fc \u20ac", reader.readString());
+        assertEquals("", reader.readString());
+        assertEquals("\u00e4\u00f6\u00fc \u20ac", reader.readString());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    public void testFileRoundTrip() {
+        JSONObject file = new JSONObject();
+        file.put("uri", "file:///test.js");
+        file.put("languageId", "js");
+        JSONArray diagnostics = new JSONArray();
+        diagnostics.put(new JSONObject().put("lineIndex", 3).put("column", 2).put("message", "Missing example arguments for: y"));
+        file.put("diagnostics", diagnostics);
+        JSONObject repeated = value("x", "42").put("interopProperties", new JSONArray().put("number"));
+        JSONArray values = new JSONArray();
+        values.put(repeated);
+        values.put(value("o", "{a: 1}").put("interopProperties", new JSONArray().put("metaObject").put("executable")).put("metaQualifiedName", "Object").put("metaSimpleName", "Object").put(
+                        "hasMembers", true));
+        values.put(value("a", "[1, 2]").put("elementCount", 2).put("hasMembers", false));
+        values.put(value("e", "boom").put("error", "boom"));
+        values.put(value("u", "?").put("interopProperties", new JSONArray().put("unknown")).put("nested", new JSONObject().put("k", new JSONArray().put(1).put("v"))));
+        values.put(repeated);
+        JSONObject example = new JSONObject().put("exampleName", "e").put("observationCount", 100).put("elisionIndex", 3).put("startIndex", 1).put("observedValues", values);
+        JSONObject probe = new JSONObject().put("probeType", "PROBE").put("lineIndex", 4).put("examples", new JSONArray().put(example));
+        JSONObject emptyProbe = new JSONObject().put("probeType", "EXAMPLE").put("lineIndex", 0).put("examples", new JSONArray());
+        file.put("probes", new JSONArray().put(emptyProbe).put(probe));
+
+        BinaryResultCodec.Writer writer = new BinaryResultCodec.Writer();
+        writer.writeFile(file);
+        writer.writeFile(file);
+        byte[] bytes = writer.toByteArray();
+        BinaryResultCodec.Reader reader = new BinaryResultCodec.Reader(ByteBuffer.wrap(bytes));
+        JSONObject first = reader.readFile();
+        JSONObject second = reader.readFile();
+        assertFalse(reader.hasRemaining());
+        assertSimilar(file, first);
+        assertSimilar(file, second);
+        assertTrue("Repeated files are written as references", bytes.length < 2 * file.toString().length() / 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedData() {
+        new BinaryResultCodec.Reader(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                        (byte) 0xFF})).readUnsigned();
+    }
+
+    /*
+     * Compares the JSON text, as the decoded numbers may be of other boxed types.
+     */
+    private static void assertSimilar(JSONObject expected, JSONObject actual) {
+        assertTrue(actual.toString(), new JSONObject(expected.toString()).similar(new JSONObject(actual.toString())));
+    }
+
+    private static JSONObject value(String expression, String displayString) {
+        return new JSONObject().put("expression", expression).put("displayString", displayString);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.types.ObservationLimit.Strategy;
+
+public class ObservationLogTest {
+    private static final PrimitiveObservation LONG = new PrimitiveObservation("x", PrimitiveObservation.Kind.LONG);
+
+    @Test
+    public void testUnlimited() {
+        ObservationLog log = new ObservationLog(ObservationLimit.UNLIMITED, null, 0);
+        addRange(log, 0, 10);
+        ObservationLog.Snapshot snapshot = log.snapshot();
+        assertEquals(range(0, 10), values(snapshot));
+        assertEquals(10, snapshot.getObservationCount());
+        assertEquals(-1, snapshot.getElisionIndex());
+    }
+
+    @Test
+    public void testFirst() {
+        ObservationLog log = new ObservationLog(new ObservationLimit(Strategy.FIRST, 4), null, 0);
+        addRange(log, 0, 10);
+        ObservationLog.Snapshot snapshot = log.snapshot();
+        assertEquals(range(0, 4), values(snapshot));
+        assertEquals(10, snapshot.getObservationCount());
+        assertEquals(4, snapshot.getElisionIndex());
+    }
+
+    @Test
+    public void testFirstAndLast() {
+        ObservationLog log = new ObservationLog(new ObservationLimit(Strategy.FIRST_AND_LAST, 5), null, 0);
+        addRange(log, 0, 4);
+        assertEquals(range(0, 4), values(log.snapshot()));
+        assertEquals(-1, log.snapshot().getElisionIndex());
+        addRange(log, 4, 10);
+        ObservationLog.Snapshot snapshot = log.snapshot();
+        assertEquals(Arrays.asList(0L, 1L, 2L, 8L, 9L), values(snapshot));
+        assertEquals(10, snapshot.getObservationCount());
+        assertEquals(3, snapshot.getElisionIndex());
+    }
+
+    @Test
+    public void testReservoirKeepsObservationOrder() {
+        ObservationLog log = new ObservationLog(new ObservationLimit(Strategy.RESERVOIR, 10), null, 42);
+        addRange(log, 0, 1000);
+        ObservationLog.Snapshot snapshot = log.snapshot();
+        List<Long> values = values(snapshot);
+        assertEquals(10, values.size());
+        ArrayList<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        assertEquals(sorted, values);
+        assertEquals(1000, snapshot.getObservationCount());
+        assertEquals(-1, snapshot.getElisionIndex());
+    }
+
+    @Test
+    public void testReservoirIsDeterministic() {
+        ObservationLog log = new ObservationLog(new ObservationLimit(Strategy.RESERVOIR, 10), null, 42);
+        ObservationLog sameSeed = new ObservationLog(new ObservationLimit(Strategy.RESERVOIR, 10), null, 42);
+        ObservationLog otherSeed = new ObservationLog(new ObservationLimit(Strategy.RESERVOIR, 10), null, 43);
+        addRange(log, 0, 1000);
+        addRange(sameSeed, 0, 1000);
+        addRange(otherSeed, 0, 1000);
+        assertEquals(values(log.snapshot()), values(sameSeed.snapshot()));
+        assertNotEquals(values(log.snapshot()), values(otherSeed.snapshot()));
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        ObservationLog log = new ObservationLog(new ObservationLimit(Strategy.FIRST_AND_LAST, 5), null, 0);
+        addRange(log, 0, 6);
+        ObservationLog.Snapshot snapshot = log.snapshot();
+        addRange(log, 6, 20);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 4L, 5L), values(snapshot));
+        assertEquals(6, snapshot.getObservationCount());
+    }
+
+    @Test
+    public void testUnchangedSize() {
+        ObservationLog unlimited = new ObservationLog(ObservationLimit.UNLIMITED, null, 0);
+        addRange(unlimited, 0, 5);
+        assertEquals(0, unlimited.snapshot().getUnchangedSize(0));
+        assertEquals(3, unlimited.snapshot().getUnchangedSize(3));
+        assertEquals(5, unlimited.snapshot().getUnchangedSize(5));
+        ObservationLog firstAndLast = new ObservationLog(new ObservationLimit(Strategy.FIRST_AND_LAST, 5), null, 0);
+        addRange(firstAndLast, 0, 10);
+        assertEquals(3, firstAndLast.snapshot().getUnchangedSize(6));
+        assertEquals(5, firstAndLast.snapshot().getUnchangedSize(10));
+    }
+
+    @Test
+    public void testAddAllCountsElidedValues() {
+        ObservationLog log = new ObservationLog(new ObservationLimit(Strategy.FIRST, 2), null, 0);
+        log.addAll(Arrays.asList(value("a"), value("b")), 7);
+        ObservationLog.Snapshot snapshot = log.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("b", snapshot.get(1).getJSON().getString("displayString"));
+        assertEquals(7, snapshot.getObservationCount());
+    }
+
+    @Test
+    public void testPooledValuesAreShared() {
+        ObservationLog log = new ObservationLog(ObservationLimit.UNLIMITED, new ObservationPool(), 0);
+        log.add(value("a"));
+        log.add(value("a"));
+        ObservationLog.Snapshot snapshot = log.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(snapshot.get(0), snapshot.get(1));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        ObservationLog unlimited = new ObservationLog(ObservationLimit.UNLIMITED, null, 0);
+        ObservationLog firstAndLast = new ObservationLog(new ObservationLimit(Strategy.FIRST_AND_LAST, 100), null, 0);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int start = i * 10000;
+            threads[i] = new Thread(() -> {
+                addRange(unlimited, start, start + 10000);
+                addRange(firstAndLast, start, start + 10000);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<Long> values = values(unlimited.snapshot());
+        assertEquals(40000, values.size());
+        assertEquals(40000, values.stream().distinct().count());
+        assertEquals(40000, firstAndLast.snapshot().getObservationCount());
+        assertEquals(100, firstAndLast.snapshot().size());
+    }
+
+    @Test
+    public void testSnapshotsWhileGrowing() throws InterruptedException {
+        for (Strategy strategy : new Strategy[]{Strategy.FIRST_AND_LAST, Strategy.RESERVOIR}) {
+            for (int i = 0; i < 200; i++) {
+                ObservationLog log = new ObservationLog(new ObservationLimit(strategy, 1000), null, 0);
+                Thread writer = new Thread(() -> addRange(log, 0, 2000));
+                writer.start();
+                while (writer.isAlive()) {
+                    ObservationLog.Snapshot snapshot = log.snapshot();
+                    if (snapshot.getObservationCount() <= 1000) {
+                        assertEquals(range(0, snapshot.size()), values(snapshot));
+                    }
+                }
+                writer.join();
+                assertEquals(1000, log.snapshot().size());
+            }
+        }
+    }
+
+    private static void addRange(ObservationLog log, long start, long end) {
+        for (long i = start; i < end; i++) {
+            log.addPrimitive(LONG, i);
+        }
+    }
+
+    private static ObjectInformation value(String displayString) {
+        JSONObject json = new JSONObject();
+        json.put("displayString", displayString);
+        return new ObjectInformation(json);
+    }
+
+    private static List<Long> range(long start, long end) {
+        ArrayList<Long> values = new ArrayList<>();
+        for (long i = start; i < end; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private static List<Long> values(ObservationLog.Snapshot snapshot) {
+        ArrayList<Long> values = new ArrayList<>();
+        for (ObjectInformation value : snapshot) {
+            values.add(Long.parseLong(value.getJSON().getString("displayString")));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of analyses, recorded by {@link AnalysisMetrics}. Requires the <code>jdk.jfr</code>
+ * module of Java 11, which the module of this instrument declares. Events can be recorded with
+ * <code>-XX:StartFlightRecording</code> and cost nothing while they are not enabled.
+ */
+final class AnalysisEvents {
+    private static final String CATEGORY = "Live Programming";
+
+    private AnalysisEvents() {
+    }
+
+    @Name("de.hpi.swa.liveprogramming.Analysis")
+    @Label("Babylonian Analysis")
+    @Category(CATEGORY)
+    @Description("Babylonian analysis of a document")
+    static final class AnalysisEvent extends Event {
+        @Label("Analysis Id") long analysisId;
+        @Label("Document") String document;
+        @Label("Examples") int exampleCount;
+        @Label("Probe Hits") long probeHits;
+        @Label("Serialized") @DataAmount long bytesSerialized;
+        @Label("Error") String error;
+    }
+
+    @Name("de.hpi.swa.liveprogramming.AnalysisPhase")
+    @Label("Babylonian Analysis Phase")
+    @Category(CATEGORY)
+    @Description("Phase of a Babylonian analysis, such as scanning documents or running an example")
+    static final class PhaseEvent extends Event {
+        @Label("Analysis Id") long analysisId;
+        @Label("Phase") String phase;
+    }
+
+    @Name("de.hpi.swa.liveprogramming.Example")
+    @Label("Babylonian Example")
+    @Category(CATEGORY)
+    @Description("Example run by a Babylonian analysis")
+    static final class ExampleEvent extends Event {
+        @Label("Analysis Id") long analysisId;
+        @Label("Example") String exampleName;
+        @Label("Probe Hits") long probeHits;
+        @Label("Capture Time") @Timespan long captureNanos;
+    }
+}
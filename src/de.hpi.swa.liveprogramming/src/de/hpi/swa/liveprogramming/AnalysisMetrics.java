@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.AnalysisEvents.AnalysisEvent;
+import de.hpi.swa.liveprogramming.AnalysisEvents.ExampleEvent;
+import de.hpi.swa.liveprogramming.AnalysisEvents.PhaseEvent;
+
+/**
+ * Records how long the phases of an analysis and each of its examples took, how often probes
+ * were hit, and how many bytes of results were serialized. Parallel workers record into the same
+ * metrics, so the durations of a phase are summed up across threads and may exceed the duration
+ * of the analysis. Analyses, phases and examples are also reported as JFR events (see
+ * {@link AnalysisEvents}), except for capturing values, which happens on every probe hit.
+ */
+final class AnalysisMetrics {
+    enum Phase {
+        SCAN("scan"),
+        MODULE_EVALUATION("moduleEvaluation"),
+        ARGUMENT_PARSING("argumentParsing"),
+        EXECUTION("execution"),
+        CAPTURE("capture"),
+        SERIALIZATION("serialization");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private final long analysisId;
+    private final boolean isMeasuringSerialization;
+    private final long startNanos = System.nanoTime();
+    private final AnalysisEvent event = new AnalysisEvent();
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private final LongAdder bytesSerialized = new LongAdder();
+    private final ConcurrentLinkedQueue<ExampleMetrics> examples = new ConcurrentLinkedQueue<>();
+    private long totalNanos = -1;
+
+    /**
+     * Serialized results are only measured if <code>isMeasuringSerialization</code> is set, as
+     * this serializes them once more.
+     */
+    AnalysisMetrics(long analysisId, URI document, boolean isMeasuringSerialization) {
+        this.analysisId = analysisId;
+        this.isMeasuringSerialization = isMeasuringSerialization;
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+        event.analysisId = analysisId;
+        event.document = document.toString();
+        event.begin();
+    }
+
+    long getAnalysisId() {
+        return analysisId;
+    }
+
+    PhaseTimer startPhase(Phase phase) {
+        return new PhaseTimer(phase);
+    }
+
+    ExampleMetrics startExample(String exampleName) {
+        ExampleMetrics example = new ExampleMetrics(exampleName);
+        examples.add(example);
+        return example;
+    }
+
+    /**
+     * Counts the size of a result or notification in UTF-8 when measuring serialization.
+     */
+    void addSerialized(JSONObject json) {
+        if (isMeasuringSerialization && json != null) {
+            bytesSerialized.add(json.toString().getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    /**
+     * Stops recording, must be called once when the analysis finished.
+     */
+    void finish(String errorOrNull) {
+        totalNanos = System.nanoTime() - startNanos;
+        event.exampleCount = examples.size();
+        event.probeHits = getProbeHits();
+        event.bytesSerialized = bytesSerialized.sum();
+        event.error = errorOrNull;
+        event.commit();
+    }
+
+    private long getProbeHits() {
+        long probeHits = 0;
+        for (ExampleMetrics example : examples) {
+            probeHits += example.probeHits;
+        }
+        return probeHits;
+    }
+
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("totalMillis", toMillis(totalNanos));
+        JSONObject phases = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.key, toMillis(phaseNanos[phase.ordinal()].sum()));
+        }
+        json.put("phaseMillis", phases);
+        json.put("probeHits", getProbeHits());
+        if (isMeasuringSerialization) {
+            json.put("bytesSerialized", bytesSerialized.sum());
+        }
+        JSONArray examplesJSON = new JSONArray();
+        for (ExampleMetrics example : examples) {
+            examplesJSON.put(example.toJSON());
+        }
+        json.put("examples", examplesJSON);
+        return json;
+    }
+
+    /**
+     * Converts to milliseconds with a precision of microseconds.
+     */
+    private static double toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0;
+    }
+
+    final class PhaseTimer {
+        private final Phase phase;
+        private final long phaseStartNanos = System.nanoTime();
+        private final PhaseEvent phaseEvent = new PhaseEvent();
+
+        private PhaseTimer(Phase phase) {
+            this.phase = phase;
+            phaseEvent.analysisId = analysisId;
+            phaseEvent.phase = phase.key;
+            phaseEvent.begin();
+        }
+
+        /**
+         * Returns the duration of the phase in nanoseconds.
+         */
+        long stop() {
+            long nanos = System.nanoTime() - phaseStartNanos;
+            phaseNanos[phase.ordinal()].add(nanos);
+            phaseEvent.commit();
+            return nanos;
+        }
+    }
+
+    /**
+     * Metrics of an example, written by the thread running it. Values may also be captured by
+     * other threads if probes are not scoped to the example.
+     */
+    final class ExampleMetrics {
+        private final String exampleName;
+        private final ExampleEvent exampleEvent = new ExampleEvent();
+        private final LongAdder captureNanos = new LongAdder();
+        private long argumentParsingNanos;
+        private long executionNanos;
+        private volatile long probeHits;
+
+        private ExampleMetrics(String exampleName) {
+            this.exampleName = exampleName;
+            exampleEvent.analysisId = analysisId;
+            exampleEvent.exampleName = exampleName;
+            exampleEvent.begin();
+        }
+
+        void parseArguments(PhaseTimer timer) {
+            argumentParsingNanos += timer.stop();
+        }
+
+        void execute(PhaseTimer timer) {
+            executionNanos += timer.stop();
+        }
+
+        /**
+         * Adds the time it took to capture an observed value. Values observed by probes are
+         * captured while the example runs, so this time is part of its execution as well.
+         */
+        void addCapture(long nanos) {
+            captureNanos.add(nanos);
+            phaseNanos[Phase.CAPTURE.ordinal()].add(nanos);
+        }
+
+        void setProbeHits(long probeHits) {
+            this.probeHits = probeHits;
+        }
+
+        void finish() {
+            exampleEvent.probeHits = probeHits;
+            exampleEvent.captureNanos = captureNanos.sum();
+            exampleEvent.commit();
+        }
+
+        private JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("exampleName", exampleName);
+            json.put("argumentParsingMillis", toMillis(argumentParsingNanos));
+            json.put("executionMillis", toMillis(executionNanos));
+            json.put("captureMillis", toMillis(captureNanos.sum()));
+            json.put("probeHits", probeHits);
+            return json;
+        }
+    }
+
+    /**
+     * Totals and maxima of the metrics of all finished analyses since the language server started
+     * or the aggregate was reset.
+     */
+    static final class Aggregate {
+        private final long[] totalPhaseNanos = new long[Phase.values().length];
+        private final long[] maxPhaseNanos = new long[Phase.values().length];
+        private long analysisCount;
+        private long exampleCount;
+        private long totalNanos;
+        private long maxNanos;
+        private long probeHits;
+        private long bytesSerialized;
+
+        synchronized void add(AnalysisMetrics metrics) {
+            analysisCount++;
+            exampleCount += metrics.examples.size();
+            totalNanos += metrics.totalNanos;
+            maxNanos = Math.max(maxNanos, metrics.totalNanos);
+            for (Phase phase : Phase.values()) {
+                long nanos = metrics.phaseNanos[phase.ordinal()].sum();
+                totalPhaseNanos[phase.ordinal()] += nanos;
+                maxPhaseNanos[phase.ordinal()] = Math.max(maxPhaseNanos[phase.ordinal()], nanos);
+            }
+            probeHits += metrics.getProbeHits();
+            bytesSerialized += metrics.bytesSerialized.sum();
+        }
+
+        synchronized JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("analysisCount", analysisCount);
+            json.put("exampleCount", exampleCount);
+            json.put("totalMillis", toMillis(totalNanos));
+            json.put("maxMillis", toMillis(maxNanos));
+            JSONObject phases = new JSONObject();
+            for (Phase phase : Phase.values()) {
+                JSONObject phaseJSON = new JSONObject();
+                phaseJSON.put("totalMillis", toMillis(totalPhaseNanos[phase.ordinal()]));
+                phaseJSON.put("maxMillis", toMillis(maxPhaseNanos[phase.ordinal()]));
+                phases.put(phase.key, phaseJSON);
+            }
+            json.put("phases", phases);
+            json.put("probeHits", probeHits);
+            json.put("bytesSerialized", bytesSerialized);
+            return json;
+        }
+
+        synchronized void reset() {
+            analysisCount = 0;
+            exampleCount = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            for (int i = 0; i < totalPhaseNanos.length; i++) {
+                totalPhaseNanos[i] = 0;
+                maxPhaseNanos[i] = 0;
+            }
+            probeHits = 0;
+            bytesSerialized = 0;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.oracle.truffle.api.source.Source;
+
+import de.hpi.swa.liveprogramming.BabylonianAnalysisExtension.BabylonianAnalysisCommand;
+import de.hpi.swa.liveprogramming.BabylonianAnalysisExtension.BabylonianAnalysisCommand.FunctionDefinition;
+import de.hpi.swa.liveprogramming.types.AbstractProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.AssertionProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.ExampleProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.StatementProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.StatementProbeWithExpression;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+
+/**
+ * Index of the example, probe, and assertion annotations per URI. Entries are keyed on a content
+ * hash of the source they were discovered in. When a source changes, only the changed lines (and
+ * annotations whose trigger lines depend on them) are scanned again, all other annotations are
+ * kept and shifted. Annotations without a trigger or function line yet (e.g. while the code
+ * below them is still being typed) are kept as pending and depend on the rest of the source.
+ */
+final class AnnotationIndex {
+    private static final String PROBE_PREFIX = "<Probe ";
+    private static final String ASSERTION_PREFIX = "<Assertion ";
+    private static final String[] TAG_PREFIXES = new String[]{BabylonianAnalysisCommand.EXAMPLE_PREFIX, PROBE_PREFIX, ASSERTION_PREFIX};
+    private static final Pattern EXTRACT_IDENTIFIER_AND_PARAMETERS = Pattern.compile("([a-zA-Z0-9]*)\\(([a-zA-Z0-9\\-_, ]*)\\)");
+
+    private final HashMap<URI, IndexEntry> entries = new HashMap<>();
+
+    /**
+     * Adds fresh probes for all annotations of the source to the file result.
+     */
+    synchronized void populate(URI uri, Source source, BabylonianAnalysisFileResult fileResult) {
+        for (Annotation annotation : lookup(uri, source)) {
+            annotation.addTo(fileResult, source.getLanguage());
+        }
+    }
+
+    /**
+     * Drops the entries of all files not contained in the given URIs (e.g. closed files).
+     */
+    synchronized void retainAll(Collection<URI> uris) {
+        entries.keySet().retainAll(uris);
+    }
+
+    private List<Annotation> lookup(URI uri, Source source) {
+        String text = source.getCharacters().toString();
+        int contentHash = text.hashCode();
+        IndexEntry entry = entries.get(uri);
+        if (entry != null && entry.contentHash == contentHash && entry.source.getCharacters().toString().equals(text)) {
+            return entry.annotations;
+        }
+        List<Annotation> annotations;
+        if (entry == null) {
+            annotations = scanDocument(source);
+        } else {
+            annotations = patch(entry.annotations, SourceDiff.computeOrNull(entry.source, source));
+        }
+        entries.put(uri, new IndexEntry(source, contentHash, annotations));
+        return annotations;
+    }
+
+    private static ArrayList<Annotation> patch(List<Annotation> annotations, SourceDiff diff) {
+        int firstChangedLine = diff.getFirstChangedLine();
+        int rescanStartLine = firstChangedLine;
+        for (Annotation annotation : annotations) {
+            if (annotation.lineNumber < firstChangedLine && annotation.lastDependentLine >= firstChangedLine) {
+                rescanStartLine = Math.min(rescanStartLine, annotation.lineNumber); // Depends on changed lines
+            }
+        }
+        ArrayList<Annotation> patched = new ArrayList<>();
+        ArrayList<Annotation> suffix = new ArrayList<>();
+        int delta = diff.getNewLastChangedLine() - diff.getOldLastChangedLine();
+        for (Annotation annotation : annotations) {
+            if (annotation.lineNumber < rescanStartLine) {
+                patched.add(annotation);
+            } else if (annotation.lineNumber > diff.getOldLastChangedLine()) {
+                suffix.add(annotation.shift(delta));
+            }
+        }
+        scanLines(diff.getNewSource(), rescanStartLine, diff.getNewLastChangedLine(), patched);
+        patched.addAll(suffix);
+        return patched;
+    }
+
+    static ArrayList<Annotation> scanDocument(Source source) {
+        ArrayList<Annotation> annotations = new ArrayList<>();
+        scanLines(source, 1, source.getLineCount(), annotations);
+        return annotations;
+    }
+
+    /**
+     * Scans all lines from startLine to endLine (inclusive). Instead of walking every line, this
+     * jumps from one tag prefix to the next, so sources without annotations are cheap to scan.
+     */
+    private static void scanLines(Source source, int startLine, int endLine, List<Annotation> annotations) {
+        if (startLine > endLine) {
+            return;
+        }
+        String text = source.getCharacters().toString();
+        int endOffset = source.getLineStartOffset(endLine) + source.getLineLength(endLine);
+        int offset = source.getLineStartOffset(startLine);
+        int[] nextTagOffsets = new int[TAG_PREFIXES.length];
+        for (int i = 0; i < TAG_PREFIXES.length; i++) {
+            nextTagOffsets[i] = text.indexOf(TAG_PREFIXES[i], offset);
+        }
+        while (offset < endOffset) {
+            int tagOffset = -1;
+            for (int i = 0; i < TAG_PREFIXES.length; i++) {
+                if (nextTagOffsets[i] >= 0 && nextTagOffsets[i] < offset) {
+                    nextTagOffsets[i] = text.indexOf(TAG_PREFIXES[i], offset);
+                }
+                if (nextTagOffsets[i] >= 0 && (tagOffset < 0 || nextTagOffsets[i] < tagOffset)) {
+                    tagOffset = nextTagOffsets[i];
+                }
+            }
+            if (tagOffset < 0 || tagOffset >= endOffset) {
+                return;
+            }
+            int lineNumber = source.getLineNumber(tagOffset);
+            Annotation annotation = scanLine(source, text, lineNumber);
+            if (annotation != null) {
+                annotations.add(annotation);
+            }
+            if (lineNumber >= source.getLineCount()) {
+                return;
+            }
+            offset = source.getLineStartOffset(lineNumber + 1);
+        }
+    }
+
+    private static Annotation scanLine(Source source, String text, int lineNumber) {
+        int lineStart = source.getLineStartOffset(lineNumber);
+        int lineEnd = lineStart + source.getLineLength(lineNumber);
+        int exampleOffset = indexOf(text, BabylonianAnalysisCommand.EXAMPLE_PREFIX, lineStart, lineEnd);
+        if (exampleOffset >= 0) {
+            TagAttributeLexer lexer = new TagAttributeLexer(text, exampleOffset, lineEnd);
+            LinkedHashMap<String, String> attributes = getAttributesOrNull(lexer);
+            if (attributes == null) {
+                return Annotation.createInvalid(lineNumber, lineNumber, lexer.getErrorOffset() - lineStart, lexer.getErrorMessage());
+            }
+            int functionLine = findFunctionDefinitionLine(lineNumber, source);
+            if (functionLine < 0) {
+                return Annotation.createPending(lineNumber); // End of source reached
+            }
+            String functionLineText = source.getCharacters(functionLine).toString();
+            FunctionDefinition functionDefinition = parseFunctionDefinition(functionLineText);
+            if (functionDefinition == null) {
+                return Annotation.createInvalid(lineNumber, functionLine, exampleOffset - lineStart, "Unable to find function definition in: " + functionLineText.trim());
+            }
+            ArrayList<String> missingParameters = new ArrayList<>(functionDefinition.getParameters());
+            missingParameters.removeAll(attributes.keySet());
+            if (!missingParameters.isEmpty()) {
+                return Annotation.createInvalid(lineNumber, functionLine, exampleOffset - lineStart, "Missing example arguments for: " + String.join(", ", missingParameters));
+            }
+            return Annotation.createExample(text.substring(lineStart, lineEnd), lineNumber, functionLine, attributes, functionDefinition);
+        }
+        int tagOffset = indexOf(text, PROBE_PREFIX, lineStart, lineEnd);
+        boolean isProbe = tagOffset >= 0;
+        if (!isProbe) {
+            tagOffset = indexOf(text, ASSERTION_PREFIX, lineStart, lineEnd);
+            if (tagOffset < 0) {
+                return null;
+            }
+        }
+        int triggerLine = findTriggerLine(lineNumber + 1, source);
+        if (triggerLine < 0) {
+            return Annotation.createPending(lineNumber); // End of source reached
+        }
+        TagAttributeLexer lexer = new TagAttributeLexer(text, tagOffset, lineEnd);
+        LinkedHashMap<String, String> attributes = getAttributesOrNull(lexer);
+        if (attributes == null) {
+            return Annotation.createInvalid(lineNumber, triggerLine, lexer.getErrorOffset() - lineStart, lexer.getErrorMessage());
+        }
+        if (!isProbe && !attributes.containsKey(AssertionProbe.ASSERTION_EXPECTED_ATTRIBUTE) && !attributes.containsKey(AssertionProbe.ASSERTION_EXPRESSION_ATTRIBUTE)) {
+            return Annotation.createInvalid(lineNumber, triggerLine, tagOffset - lineStart,
+                            "Assertions require an " + AssertionProbe.ASSERTION_EXPECTED_ATTRIBUTE + " or " + AssertionProbe.ASSERTION_EXPRESSION_ATTRIBUTE + " attribute");
+        }
+        return Annotation.createProbe(!isProbe, lineNumber, triggerLine, attributes);
+    }
+
+    /**
+     * Finds a prefix within the given range only, without searching the rest of the text.
+     */
+    private static int indexOf(String text, String prefix, int startOffset, int endOffset) {
+        for (int index = startOffset; index + prefix.length() <= endOffset; index++) {
+            if (text.regionMatches(index, prefix, 0, prefix.length())) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int findFunctionDefinitionLine(int startLineNumber, Source source) {
+        for (int lineNumber = startLineNumber; lineNumber < source.getLineCount(); lineNumber++) {
+            if (!source.getCharacters(lineNumber).toString().contains(BabylonianAnalysisCommand.EXAMPLE_PREFIX)) {
+                return lineNumber; // Skip consecutive examples
+            }
+        }
+        return -1;
+    }
+
+    private static FunctionDefinition parseFunctionDefinition(String line) {
+        Matcher m = EXTRACT_IDENTIFIER_AND_PARAMETERS.matcher(line);
+        if (m.find()) {
+            // FIXME: workaround for R functions
+            String identifier;
+            if (line.contains(" <- function")) {
+                identifier = line.substring(0, line.indexOf(" <- function"));
+            } else {
+                identifier = m.group(1);
+            }
+            return new FunctionDefinition(identifier, m.group(2).replaceAll(" ", "").split(","));
+        } else {
+            return null;
+        }
+    }
+
+    private static int findTriggerLine(int startLineNumber, Source source) {
+        for (int lineNumber = startLineNumber; lineNumber < source.getLineCount(); lineNumber++) {
+            String line = source.getCharacters(lineNumber).toString();
+            if (line.isBlank() || line.contains(PROBE_PREFIX) || line.contains(ASSERTION_PREFIX)) {
+                continue; // Skip consecutive probes and assertions
+            }
+            return lineNumber; // Trigger line must not be blank
+        }
+        return -1;
+    }
+
+    /**
+     * Reads all attributes of a tag, or returns <code>null</code> if the tag is malformed (the
+     * lexer then holds the error message and position).
+     */
+    static LinkedHashMap<String, String> getAttributesOrNull(TagAttributeLexer lexer) {
+        LinkedHashMap<String, String> attributes = new LinkedHashMap<>();
+        while (lexer.next()) {
+            String name = lexer.getName();
+            if (attributes.put(name, lexer.getValue()) != null) {
+                lexer.reportError(lexer.getNameOffset(), "Duplicate attribute '" + name + "'");
+                return null;
+            }
+        }
+        return lexer.isTerminated() ? attributes : null;
+    }
+
+    private static final class IndexEntry {
+        private final Source source;
+        private final int contentHash;
+        private final List<Annotation> annotations;
+
+        private IndexEntry(Source source, int contentHash, List<Annotation> annotations) {
+            this.source = source;
+            this.contentHash = contentHash;
+            this.annotations = annotations;
+        }
+    }
+
+    private enum AnnotationKind {
+        EXAMPLE,
+        PROBE,
+        ASSERTION,
+        INVALID,
+        PENDING,
+    }
+
+    /**
+     * Immutable descriptor of an annotation, from which fresh probes are created for every
+     * analysis.
+     */
+    static final class Annotation {
+        private final AnnotationKind kind;
+        private final int lineNumber;
+        /*
+         * Function definition line for examples, trigger line for probes and assertions (also if
+         * invalid), or Integer.MAX_VALUE for pending annotations.
+         */
+        private final int lastDependentLine;
+        private final LinkedHashMap<String, String> attributes;
+        private final FunctionDefinition functionDefinition;
+        /* Line of an example, or message of an invalid annotation. */
+        private final String text;
+        private final int column;
+
+        private Annotation(AnnotationKind kind, int lineNumber, int lastDependentLine, LinkedHashMap<String, String> attributes, FunctionDefinition functionDefinition, String text, int column) {
+            this.kind = kind;
+            this.lineNumber = lineNumber;
+            this.lastDependentLine = lastDependentLine;
+            this.attributes = attributes;
+            this.functionDefinition = functionDefinition;
+            this.text = text;
+            this.column = column;
+        }
+
+        private static Annotation createExample(String line, int lineNumber, int functionLine, LinkedHashMap<String, String> attributes, FunctionDefinition functionDefinition) {
+            return new Annotation(AnnotationKind.EXAMPLE, lineNumber, functionLine, attributes, functionDefinition, line, 0);
+        }
+
+        private static Annotation createProbe(boolean isAssertion, int lineNumber, int triggerLine, LinkedHashMap<String, String> attributes) {
+            return new Annotation(isAssertion ? AnnotationKind.ASSERTION : AnnotationKind.PROBE, lineNumber, triggerLine, attributes, null, null, 0);
+        }
+
+        /**
+         * Creates a descriptor for a malformed annotation, which is reported as a diagnostic. The
+         * diagnostic depends on all lines up to <code>lastDependentLine</code>.
+         */
+        private static Annotation createInvalid(int lineNumber, int lastDependentLine, int column, String message) {
+            return new Annotation(AnnotationKind.INVALID, lineNumber, lastDependentLine, null, null, message, column);
+        }
+
+        /**
+         * Creates a descriptor for an annotation without a trigger or function line, which is
+         * scanned again whenever a line below it changes.
+         */
+        private static Annotation createPending(int lineNumber) {
+            return new Annotation(AnnotationKind.PENDING, lineNumber, Integer.MAX_VALUE, null, null, null, 0);
+        }
+
+        private Annotation shift(int delta) {
+            if (delta == 0) {
+                return this;
+            }
+            int shiftedDependentLine = kind == AnnotationKind.PENDING ? lastDependentLine : lastDependentLine + delta;
+            return new Annotation(kind, lineNumber + delta, shiftedDependentLine, attributes, functionDefinition, text, column);
+        }
+
+        private void addTo(BabylonianAnalysisFileResult fileResult, String languageId) {
+            if (kind == AnnotationKind.INVALID) {
+                fileResult.addDiagnostic(lineNumber, column, text);
+                return;
+            } else if (kind == AnnotationKind.PENDING) {
+                return;
+            }
+            String exampleNameOrNull = attributes.get(ExampleProbe.EXAMPLE_FILTER_ATTRIBUTE);
+            switch (kind) {
+                case EXAMPLE:
+                    fileResult.addExample(new ExampleProbe(text, lineNumber, languageId, functionDefinition, attributes));
+                    break;
+                case PROBE: {
+                    String expression = attributes.get(StatementProbeWithExpression.PROBE_EXPRESSION_ATTRIBUTE);
+                    AbstractProbe probe;
+                    if (expression == null) {
+                        probe = new StatementProbe(exampleNameOrNull, lineNumber);
+                    } else {
+                        probe = new StatementProbeWithExpression(exampleNameOrNull, lineNumber, expression);
+                    }
+                    fileResult.addProbe(lastDependentLine, probe);
+                    break;
+                }
+                case ASSERTION: {
+                    String expected = attributes.get(AssertionProbe.ASSERTION_EXPECTED_ATTRIBUTE);
+                    if (expected != null) {
+                        fileResult.addProbe(lastDependentLine, new AssertionProbe(exampleNameOrNull, lineNumber, expected, true));
+                    } else {
+                        fileResult.addProbe(lastDependentLine, new AssertionProbe(exampleNameOrNull, lineNumber, attributes.get(AssertionProbe.ASSERTION_EXPRESSION_ATTRIBUTE), false));
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown annotation kind: " + kind);
+            }
+        }
+    }
+}
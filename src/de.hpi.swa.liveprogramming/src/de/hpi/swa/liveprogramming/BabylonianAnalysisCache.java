@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.oracle.truffle.api.source.Source;
+
+import de.hpi.swa.liveprogramming.BabylonianAnalysisExtension.BabylonianAnalysisCommand;
+import de.hpi.swa.liveprogramming.types.AbstractProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.ExampleProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.OrphanProbe;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+import de.hpi.swa.liveprogramming.types.LineProfile;
+import de.hpi.swa.liveprogramming.types.ObjectInformation;
+
+/**
+ * Keeps the sources and results of the last complete analysis per URI, so that examples not
+ * affected by an edit can reuse their previous observations instead of running again. An example
+ * is affected if an edit touches a function it reached (according to its recorded coverage) or
+ * if an edit lies outside of all functions known to be reached by any example (e.g. top-level
+ * code).
+ */
+final class BabylonianAnalysisCache {
+    private final HashMap<URI, Source> sources = new HashMap<>();
+    private final HashMap<URI, BabylonianAnalysisFileResult> fileResults = new HashMap<>();
+
+    /* State of the current analysis, valid between prepare() and update(). */
+    private final HashMap<URI, SourceDiff> changes = new HashMap<>();
+    private final HashMap<URI, ArrayList<int[]>> knownFunctionLines = new HashMap<>();
+    private URI selectionURI;
+    private int selectedLineNumber = -1;
+
+    void prepare(Map<URI, Source> currentSources, URI newSelectionURI, int newSelectedLineNumber) {
+        changes.clear();
+        knownFunctionLines.clear();
+        selectionURI = newSelectionURI;
+        selectedLineNumber = newSelectedLineNumber;
+        for (Map.Entry<URI, Source> entry : sources.entrySet()) {
+            Source currentSource = currentSources.get(entry.getKey());
+            if (currentSource == null) {
+                fileResults.remove(entry.getKey()); // File was closed, forget its results
+                continue;
+            }
+            SourceDiff diff = SourceDiff.computeOrNull(entry.getValue(), currentSource);
+            if (diff != null) {
+                changes.put(entry.getKey(), diff);
+            }
+        }
+        for (BabylonianAnalysisFileResult fileResult : fileResults.values()) {
+            for (ExampleProbe example : fileResult.getExamples()) {
+                for (Map.Entry<URI, ArrayList<int[]>> entry : example.getCoveredLines().entrySet()) {
+                    knownFunctionLines.computeIfAbsent(entry.getKey(), u -> new ArrayList<>()).addAll(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the observations of the previous run of an unaffected example into the new result.
+     * Returns <code>false</code> if the example must run again.
+     */
+    boolean tryReuse(URI uri, ExampleProbe example, BabylonianAnalysisResult result) {
+        ExampleProbe previous = findPreviousExampleOrNull(uri, example);
+        if (previous == null || previous.getCoveredLines().isEmpty() || isAffected(uri, previous)) {
+            return false;
+        }
+        List<ObjectInformation> exampleValues = previous.getObservedValuesOrNull(previous.getExampleName());
+        if (exampleValues != null) {
+            example.addObservedValues(example.getExampleName(), exampleValues, previous.getObservationCount(previous.getExampleName()));
+        }
+        for (Map.Entry<URI, ArrayList<int[]>> entry : previous.getCoveredLines().entrySet()) {
+            SourceDiff diff = changes.get(entry.getKey());
+            for (int[] lines : entry.getValue()) {
+                if (diff == null) {
+                    example.addCoveredLines(entry.getKey(), lines[0], lines[1]);
+                } else {
+                    example.addCoveredLines(entry.getKey(), diff.mapLine(lines[0]), diff.mapLine(lines[1]));
+                }
+            }
+        }
+        LineProfile previousProfile = previous.getLineProfileOrNull();
+        if (previousProfile != null) {
+            example.setLineProfile(previousProfile.mapLines((lineURI, lineNumber) -> {
+                SourceDiff diff = changes.get(lineURI);
+                return diff == null ? lineNumber : diff.mapLine(lineNumber);
+            }));
+        }
+        for (BabylonianAnalysisFileResult previousFile : fileResults.values()) {
+            BabylonianAnalysisFileResult file = result.getFileOrNull(previousFile.getURI());
+            if (file == null) {
+                continue;
+            }
+            SourceDiff diff = changes.get(previousFile.getURI());
+            for (Map.Entry<Integer, AbstractProbe> entry : previousFile.getProbes().entrySet()) {
+                AbstractProbe previousProbe = entry.getValue();
+                List<ObjectInformation> values = previousProbe.getObservedValuesOrNull(example.getExampleName());
+                if (values == null) {
+                    continue;
+                }
+                int triggerLine = diff == null ? entry.getKey() : diff.mapLine(entry.getKey());
+                if (triggerLine < 0) {
+                    continue;
+                }
+                AbstractProbe probe = file.get(triggerLine);
+                if (probe == null && previousProbe instanceof OrphanProbe) {
+                    probe = new OrphanProbe(null, triggerLine);
+                    file.addProbe(triggerLine, probe);
+                }
+                if (probe != null && probe.getClass() == previousProbe.getClass()) {
+                    probe.addObservedValues(example.getExampleName(), values, previousProbe.getObservationCount(example.getExampleName()));
+                }
+            }
+        }
+        return true;
+    }
+
+    private ExampleProbe findPreviousExampleOrNull(URI uri, ExampleProbe example) {
+        BabylonianAnalysisFileResult previousFile = fileResults.get(uri);
+        if (previousFile != null) {
+            for (ExampleProbe previous : previousFile.getExamples()) {
+                if (previous.getExampleName().equals(example.getExampleName()) && previous.getInvocationExpression().equals(example.getInvocationExpression())) {
+                    return previous;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isAffected(URI uri, ExampleProbe previous) {
+        for (URI coveredURI : previous.getCoveredLines().keySet()) {
+            if (!fileResults.containsKey(coveredURI) && sources.containsKey(coveredURI)) {
+                return true; // Reached file was closed in the meantime
+            }
+        }
+        for (Map.Entry<URI, SourceDiff> entry : changes.entrySet()) {
+            SourceDiff diff = entry.getValue();
+            if (diff.allChangedLinesContain(BabylonianAnalysisCommand.EXAMPLE_PREFIX)) {
+                continue; // Only example annotations changed
+            }
+            ArrayList<int[]> coveredLines = previous.getCoveredLines().get(entry.getKey());
+            if (coveredLines != null) {
+                for (int[] lines : coveredLines) {
+                    if (diff.intersects(lines[0], lines[1])) {
+                        return true;
+                    }
+                }
+            }
+            if ((coveredLines != null || entry.getKey().equals(uri)) && !isWithinKnownFunction(entry.getKey(), diff)) {
+                return true; // Top-level code of a reached file changed
+            }
+        }
+        if (selectionURI != null) {
+            ArrayList<int[]> coveredLines = previous.getCoveredLines().get(selectionURI);
+            SourceDiff diff = changes.get(selectionURI);
+            if (coveredLines != null) {
+                for (int[] lines : coveredLines) {
+                    int startLine = diff == null ? lines[0] : diff.mapLine(lines[0]);
+                    int endLine = diff == null ? lines[1] : diff.mapLine(lines[1]);
+                    if (startLine <= selectedLineNumber && selectedLineNumber <= endLine) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isWithinKnownFunction(URI uri, SourceDiff diff) {
+        ArrayList<int[]> functionLines = knownFunctionLines.get(uri);
+        if (functionLines != null) {
+            for (int[] lines : functionLines) {
+                if (diff.isContainedIn(lines[0], lines[1])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    void update(Map<URI, Source> currentSources, BabylonianAnalysisResult result) {
+        sources.clear();
+        sources.putAll(currentSources);
+        fileResults.clear();
+        for (BabylonianAnalysisFileResult fileResult : result.getFileResults()) {
+            fileResults.put(fileResult.getURI(), fileResult);
+        }
+        changes.clear();
+        knownFunctionLines.clear();
+    }
+
+    /**
+     * Forgets all previous results, so that all examples run again.
+     */
+    void clear() {
+        sources.clear();
+        fileResults.clear();
+    }
+}
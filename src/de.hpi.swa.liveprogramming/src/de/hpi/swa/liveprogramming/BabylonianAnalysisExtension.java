@@ -5,42 +5,46 @@
  */
 package de.hpi.swa.liveprogramming;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 
+import org.graalvm.options.OptionCategory;
+import org.graalvm.options.OptionDescriptor;
+import org.graalvm.options.OptionDescriptors;
+import org.graalvm.options.OptionKey;
+import org.graalvm.options.OptionStability;
+import org.graalvm.options.OptionValues;
 import org.graalvm.tools.api.lsp.LSPCommand;
 import org.graalvm.tools.api.lsp.LSPExtension;
 import org.graalvm.tools.api.lsp.LSPServerAccessor;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Option;
+import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventBinding;
 import com.oracle.truffle.api.instrumentation.EventContext;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
 import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument.Registration;
 import com.oracle.truffle.api.interop.InteropLibrary;
@@ -50,18 +54,22 @@ import com.oracle.truffle.api.nodes.ExecutableNode;
 import com.oracle.truffle.api.nodes.LanguageInfo;
 import com.oracle.truffle.api.source.Source;
 import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.tools.utils.json.JSONObject;
 
+import de.hpi.swa.liveprogramming.AnalysisMetrics.ExampleMetrics;
+import de.hpi.swa.liveprogramming.AnalysisMetrics.Phase;
+import de.hpi.swa.liveprogramming.AnalysisMetrics.PhaseTimer;
 import de.hpi.swa.liveprogramming.types.AbstractProbe;
-import de.hpi.swa.liveprogramming.types.AbstractProbe.AssertionProbe;
 import de.hpi.swa.liveprogramming.types.AbstractProbe.ExampleProbe;
-import de.hpi.swa.liveprogramming.types.AbstractProbe.OrphanProbe;
 import de.hpi.swa.liveprogramming.types.AbstractProbe.SelectionProbe;
-import de.hpi.swa.liveprogramming.types.AbstractProbe.StatementProbe;
-import de.hpi.swa.liveprogramming.types.AbstractProbe.StatementProbeWithExpression;
 import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult;
 import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
 import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisTerminationResult;
 import de.hpi.swa.liveprogramming.types.ObjectInformation;
+import de.hpi.swa.liveprogramming.types.ObservationLimit;
+import de.hpi.swa.liveprogramming.types.ObservationLimit.Strategy;
+import de.hpi.swa.liveprogramming.types.ResultDeltaEncoder;
+import de.hpi.swa.liveprogramming.types.ResultDeltaEncoder.Encoding;
 
 @Registration(id = BabylonianAnalysisExtension.ID, name = BabylonianAnalysisExtension.NAME, version = BabylonianAnalysisExtension.VERSION, services = LSPExtension.class)
 public class BabylonianAnalysisExtension extends TruffleInstrument implements LSPExtension {
@@ -69,216 +77,476 @@ public class BabylonianAnalysisExtension extends TruffleInstrument implements LS
     protected static final String NAME = "Babylonian Analysis LSP Extension";
     protected static final String VERSION = "0.1";
 
+    @Option(name = "Incremental", help = "Only re-run examples affected by an edit and reuse previous results for all others, which may be stale for examples depending on global state, I/O, or randomness (default: false).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Boolean> INCREMENTAL = new OptionKey<>(false);
+
+    @Option(name = "Parallelism", help = "Number of worker contexts running examples in parallel, 0 runs all examples sequentially (default: 0).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Integer> PARALLELISM = new OptionKey<>(0);
+
+    @Option(name = "WorkerPermissions", help = "Permissions of the worker contexts of Parallelism, which should match the ones of the language server: comma-separated list of io, threads, processes, native, environment, hostAccess, hostClassLookup, and polyglot (default: io).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<String> WORKER_PERMISSIONS = new OptionKey<>("io");
+
+    @Option(name = "MaxObservedValues", help = "Maximum number of values a probe keeps per example, 0 keeps all values (default: 100).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Integer> MAX_OBSERVED_VALUES = new OptionKey<>(100);
+
+    @Option(name = "ObservationSampling", help = "Values kept once MaxObservedValues is reached: FIRST, FIRST_AND_LAST, or RESERVOIR (default: FIRST_AND_LAST).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Strategy> OBSERVATION_SAMPLING = new OptionKey<>(Strategy.FIRST_AND_LAST);
+
+    @Option(name = "ReuseModules", help = "Only evaluate exemplified files again if an open file of their language changed, state modified by examples persists until then (default: false).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Boolean> REUSE_MODULES = new OptionKey<>(false);
+
+    @Option(name = "ScopeProbesToExample", help = "Only record values observed by the thread running an example, ignoring other threads (default: true).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Boolean> SCOPE_PROBES_TO_EXAMPLE = new OptionKey<>(true);
+
+    @Option(name = "ExampleTimeout", help = "Maximum time in milliseconds an example may run, 0 only stops examples to finish the analysis in time (default: 2000).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Integer> EXAMPLE_TIMEOUT = new OptionKey<>(2000);
+
+    @Option(name = "ExampleStepLimit", help = "Maximum number of probe hits per example, 0 does not limit the number of hits (default: 0).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Integer> EXAMPLE_STEP_LIMIT = new OptionKey<>(0);
+
+    @Option(name = "ResultCache", help = "Keep the results of the last analysis of each file on disk to show them right away after a restart (default: true).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Boolean> RESULT_CACHE = new OptionKey<>(true);
+
+    @Option(name = "ResultCacheFile", help = "File for ResultCache (default: ~/.polyglot-live-programming/babylonian-results.bin).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<String> RESULT_CACHE_FILE = new OptionKey<>("");
+
+    @Option(name = "DeltaEncoding", help = "Encoding of streamed observations: JSON or BINARY (default: JSON).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Encoding> DELTA_ENCODING = new OptionKey<>(Encoding.JSON);
+
+    @Option(name = "MeasureSerialization", help = "Include the number of bytes of serialized results in metrics, which serializes them once more (default: false).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Boolean> MEASURE_SERIALIZATION = new OptionKey<>(false);
+
+    @Option(name = "LineProfiling", help = "Profile the lines each example executed for a heatmap: OFF, HITS (statement counts), or TIME (counts and self time) (default: OFF).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<LineProfiler.Mode> LINE_PROFILING = new OptionKey<>(LineProfiler.Mode.OFF);
+
+    @Option(name = "AllocationTracking", help = "Attribute objects and bytes allocated by examples to the lines allocating them, as far as languages report allocations (default: false).", category = OptionCategory.USER, stability = OptionStability.EXPERIMENTAL) //
+    static final OptionKey<Boolean> ALLOCATION_TRACKING = new OptionKey<>(false);
+
+    private Env env;
+    private BabylonianAnalysisCommand command;
+
     public List<LSPCommand> getCommands() {
-        return Arrays.asList(new BabylonianAnalysisCommand());
+        return Arrays.asList(command, new ObjectDetailsCommand(command), new ResetModulesCommand(command), new MetricsCommand(command));
+    }
+
+    /**
+     * Materializes members and array elements of a value observed by the current analysis.
+     */
+    public static final class ObjectDetailsCommand implements LSPCommand {
+        private final BabylonianAnalysisCommand analysisCommand;
+
+        private ObjectDetailsCommand(BabylonianAnalysisCommand analysisCommand) {
+            this.analysisCommand = analysisCommand;
+        }
+
+        public String getName() {
+            return "babylonian_object_details";
+        }
+
+        public Object execute(LSPServerAccessor server, Env envInternal, List<Object> arguments) {
+            try {
+                URI uri = URI.create((String) arguments.get(0));
+                int lineNumber = (int) arguments.get(1) + 1;
+                String exampleName = (String) arguments.get(2);
+                int index = (int) arguments.get(3);
+                ObjectInformation value = analysisCommand.findObservedValueOrNull(uri, lineNumber, exampleName, index);
+                if (value == null) {
+                    return ObjectInformation.createError("<unknown>", "", "Value no longer available.").getJSON();
+                }
+                return value.getDetailedJSON();
+            } catch (ClassCastException | IndexOutOfBoundsException e) {
+                return ObjectInformation.createError("<unknown>", "", e.getMessage()).getJSON();
+            }
+        }
+
+        public int getTimeoutMillis() {
+            return 5000;
+        }
+
+        public Object onTimeout(List<Object> arguments) {
+            return ObjectInformation.createError("<unknown>", "", "Materializing object details took too long.").getJSON();
+        }
+    }
+
+    /**
+     * Forces the next analysis to evaluate all exemplified files again, even if they did not
+     * change.
+     */
+    public static final class ResetModulesCommand implements LSPCommand {
+        private final BabylonianAnalysisCommand analysisCommand;
+
+        private ResetModulesCommand(BabylonianAnalysisCommand analysisCommand) {
+            this.analysisCommand = analysisCommand;
+        }
+
+        public String getName() {
+            return "babylonian_reset_modules";
+        }
+
+        public Object execute(LSPServerAccessor server, Env envInternal, List<Object> arguments) {
+            analysisCommand.resetModules();
+            return true;
+        }
+
+        public int getTimeoutMillis() {
+            return 1000;
+        }
+
+        public Object onTimeout(List<Object> arguments) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the metrics of all analyses aggregated since the language server started, and
+     * resets them if the first argument is <code>true</code>.
+     */
+    public static final class MetricsCommand implements LSPCommand {
+        private final BabylonianAnalysisCommand analysisCommand;
+
+        private MetricsCommand(BabylonianAnalysisCommand analysisCommand) {
+            this.analysisCommand = analysisCommand;
+        }
+
+        public String getName() {
+            return "babylonian_analysis_metrics";
+        }
+
+        public Object execute(LSPServerAccessor server, Env envInternal, List<Object> arguments) {
+            JSONObject json = analysisCommand.aggregateMetrics.toJSON();
+            if (!arguments.isEmpty() && Boolean.TRUE.equals(arguments.get(0))) {
+                analysisCommand.aggregateMetrics.reset();
+            }
+            return json;
+        }
+
+        public int getTimeoutMillis() {
+            return 1000;
+        }
+
+        public Object onTimeout(List<Object> arguments) {
+            return new JSONObject();
+        }
     }
 
     public static class BabylonianAnalysisCommand implements LSPCommand {
 
         public static final String EXAMPLE_PREFIX = "<Example ";
-        private static final String PROBE_PREFIX = "<Probe ";
-        private static final String ASSERTION_PREFIX = "<Assertion ";
-        private static final String BABYLONIAN_ANALYSIS_RESULT_METHOD = "textDocument/babylonianAnalysisResult";
-        private static final Pattern EXTRACT_IDENTIFIER_AND_PARAMETERS = Pattern.compile("([a-zA-Z0-9]*)\\(([a-zA-Z0-9\\-_, ]*)\\)");
-        private static final DocumentBuilder XML_PARSER;
+        private static final String BABYLONIAN_ANALYSIS_DELTA_METHOD = "textDocument/babylonianAnalysisDelta";
         private static final String ASYNC_WORKER_NAME = "LS Babylonian Async Updater";
+        private static final int TIMEOUT_MILLIS = 10000;
+        /* Time reserved for reporting the result before the command times out. */
+        private static final int RESULT_MARGIN_MILLIS = 1000;
+        private static final String SUPERSEDED_ERROR = "Superseded by a newer analysis.";
+        private static final String DEFAULT_RESULT_CACHE_FILE = ".polyglot-live-programming/babylonian-results.bin";
         private static final InteropLibrary INTEROP = InteropLibrary.getUncached();
+        private static final SourceSectionFilter COVERAGE_FILTER = SourceSectionFilter.newBuilder().tagIs(StandardTags.RootTag.class).build();
 
         private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(0, r -> new Thread(r, ASYNC_WORKER_NAME));
+        private final BabylonianAnalysisCache cache = new BabylonianAnalysisCache();
+        private final AnnotationIndex annotationIndex = new AnnotationIndex();
+        private final ExampleTargetCache targetCache = new ExampleTargetCache();
+        private final ModuleEvaluationCache moduleCache = new ModuleEvaluationCache();
+        private final AtomicLong moduleResetCount = new AtomicLong();
+        /* Budgets of the analyses requested per document, cancelled when superseded. */
+        private final ConcurrentHashMap<URI, ExampleBudget> runningBudgets = new ConcurrentHashMap<>();
+        private final Object analysisLock = new Object();
+        private final PersistentResultCache persistentCache;
+        private final Encoding deltaEncoding;
+        private final boolean measureSerialization;
+        private final LineProfiler.Mode lineProfiling;
+        private final boolean trackAllocations;
+        private final AnalysisMetrics.Aggregate aggregateMetrics = new AnalysisMetrics.Aggregate();
+        private long lastModuleResetCount;
+        private final boolean isIncremental;
+        private final boolean reuseModules;
+        private final boolean scopeProbesToExample;
+        private final int exampleTimeoutMillis;
+        private final int exampleStepLimit;
+        private final int parallelism;
+        private final Map<String, String> workerOptions;
+        private final String workerPermissions;
+        private final ObservationLimit observationLimit;
+        private ParallelExampleRunner parallelRunner;
         private long startMillis;
+        /* Identifies this instance of the language server, as analysis ids restart with it. */
+        private final long epoch = System.currentTimeMillis();
+        private long analysisId;
+        private volatile BabylonianAnalysisResult currentResult;
+
+        BabylonianAnalysisCommand(OptionValues options) {
+            isIncremental = options.get(INCREMENTAL);
+            parallelism = options.get(PARALLELISM);
+            workerOptions = getWorkerOptions(options);
+            workerPermissions = options.get(WORKER_PERMISSIONS);
+            reuseModules = options.get(REUSE_MODULES);
+            scopeProbesToExample = options.get(SCOPE_PROBES_TO_EXAMPLE);
+            exampleTimeoutMillis = Math.max(0, options.get(EXAMPLE_TIMEOUT));
+            exampleStepLimit = Math.max(0, options.get(EXAMPLE_STEP_LIMIT));
+            observationLimit = new ObservationLimit(options.get(OBSERVATION_SAMPLING), Math.max(0, options.get(MAX_OBSERVED_VALUES)));
+            deltaEncoding = options.get(DELTA_ENCODING);
+            measureSerialization = options.get(MEASURE_SERIALIZATION);
+            lineProfiling = options.get(LINE_PROFILING);
+            trackAllocations = options.get(ALLOCATION_TRACKING);
+            if (options.get(RESULT_CACHE)) {
+                String cacheFile = options.get(RESULT_CACHE_FILE);
+                persistentCache = new PersistentResultCache(cacheFile.isEmpty() ? Paths.get(System.getProperty("user.home"), DEFAULT_RESULT_CACHE_FILE) : Paths.get(cacheFile));
+            } else {
+                persistentCache = null;
+            }
+        }
 
-        static {
-            try {
-                XML_PARSER = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            } catch (ParserConfigurationException e) {
-                throw new RuntimeException(e);
+        /**
+         * Returns the options set for this instrument, so that the instruments of worker engines
+         * behave the same, except that they neither start workers nor write the result cache.
+         */
+        private static Map<String, String> getWorkerOptions(OptionValues options) {
+            HashMap<String, String> workerOptions = new HashMap<>();
+            for (OptionDescriptor descriptor : options.getDescriptors()) {
+                OptionKey<?> key = descriptor.getKey();
+                if (key == PARALLELISM) {
+                    workerOptions.put(descriptor.getName(), "0");
+                } else if (key == RESULT_CACHE) {
+                    workerOptions.put(descriptor.getName(), "false");
+                } else if (options.hasBeenSet(key)) {
+                    workerOptions.put(descriptor.getName(), String.valueOf(options.get(key)));
+                }
             }
+            return workerOptions;
         }
 
         public String getName() {
             return "babylonian_analysis";
         }
 
+        /**
+         * Cancels the analysis still running for the same document, which is superseded by this
+         * request, and runs one analysis at a time. The metrics of the analysis are added to the
+         * termination result.
+         */
         public Object execute(LSPServerAccessor server, Env envInternal, List<Object> arguments) {
-            startMillis = System.currentTimeMillis();
+            long requestMillis = System.currentTimeMillis();
+            ExampleBudget budget = new ExampleBudget(exampleTimeoutMillis, exampleStepLimit, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS - RESULT_MARGIN_MILLIS));
             URI targetURI = URI.create((String) arguments.get(0));
+            ExampleBudget supersededBudget = runningBudgets.put(targetURI, budget);
+            if (supersededBudget != null) {
+                supersededBudget.cancel();
+            }
+            try {
+                synchronized (analysisLock) {
+                    if (budget.isCancelled()) {
+                        return createSupersededResult(requestMillis);
+                    }
+                    AnalysisMetrics metrics = new AnalysisMetrics(++analysisId, targetURI, measureSerialization);
+                    JSONObject termination = analyze(server, envInternal, arguments, targetURI, budget, metrics);
+                    String error = termination.optString("error", null);
+                    metrics.finish(error);
+                    if (error == null) {
+                        aggregateMetrics.add(metrics);
+                    }
+                    termination.put("metrics", metrics.toJSON());
+                    return termination;
+                }
+            } finally {
+                runningBudgets.remove(targetURI, budget);
+            }
+        }
 
-            Set<URI> openFileURIs = server.getOpenFileURI2LangId().keySet();
+        private JSONObject analyze(LSPServerAccessor server, Env envInternal, List<Object> arguments, URI targetURI, ExampleBudget budget, AnalysisMetrics metrics) {
+            startMillis = System.currentTimeMillis();
 
-            BabylonianAnalysisResult result = new BabylonianAnalysisResult();
+            Set<URI> openFileURIs = server.getOpenFileURI2LangId().keySet();
 
+            int selectedLineNumber = -1;
+            String selectedText = null;
             if (arguments.size() == 3) {
                 try {
-                    int selectedLineNumber = (int) arguments.get(1) + 1;
-                    String selectedText = ((String) arguments.get(2));
-                    String languageId = Source.findLanguage(targetURI.toURL());
-                    result.getOrCreateFile(targetURI, languageId).addProbe(selectedLineNumber, new SelectionProbe(null, selectedLineNumber, selectedText));
-                } catch (ClassCastException | IOException e) {
+                    selectedLineNumber = (int) arguments.get(1) + 1;
+                    selectedText = ((String) arguments.get(2));
+                } catch (ClassCastException e) {
                     printError(e.getMessage());
+                    selectedLineNumber = -1;
                 }
             }
 
+            HashMap<URI, Source> sources = new HashMap<>();
             for (URI uri : openFileURIs) {
                 Source source = server.getSource(uri);
                 if (source != null && source.hasCharacters()) {
-                    scanDocument(result.getOrCreateFile(uri, source.getLanguage()), source);
-                    if (source.getCharacters().toString().contains(EXAMPLE_PREFIX)) {
-                        try {
-                            envInternal.parse(source).call();
-                        } catch (Throwable e) {
-                            return BabylonianAnalysisTerminationResult.create(startMillis, e.getMessage());
-                        }
+                    sources.put(uri, source);
+                }
+            }
+
+            PhaseTimer scan = metrics.startPhase(Phase.SCAN);
+            BabylonianAnalysisResult result = createResult(targetURI, sources, selectedLineNumber, selectedText);
+            scan.stop();
+            currentResult = result;
+            ArrayList<Source> exemplifiedSources = new ArrayList<>();
+            for (Map.Entry<URI, Source> entry : sources.entrySet()) {
+                if (!result.getFileOrNull(entry.getKey()).getExamples().isEmpty()) {
+                    exemplifiedSources.add(entry.getValue());
+                }
+            }
+
+            annotationIndex.retainAll(sources.keySet());
+
+            long currentModuleResetCount = moduleResetCount.get();
+            if (currentModuleResetCount != lastModuleResetCount) {
+                lastModuleResetCount = currentModuleResetCount;
+                cache.clear(); // Examples may observe different values after a fresh evaluation
+            }
+            ArrayList<ExampleProbe> examplesToRun = new ArrayList<>();
+            if (isIncremental) {
+                cache.prepare(sources, selectedLineNumber < 0 ? null : targetURI, selectedLineNumber);
+            }
+            for (BabylonianAnalysisFileResult file : result.getFileResults()) {
+                for (ExampleProbe example : file.getExamples()) {
+                    if (!isIncremental || !cache.tryReuse(file.getURI(), example, result)) {
+                        examplesToRun.add(example);
                     }
                 }
             }
 
-            ScheduledFuture<?> future = sendDecorationsPeriodically(server, result);
+            Map<String, String> moduleFingerprints = reuseModules ? ModuleEvaluationCache.computeFingerprints(exemplifiedSources, sources.values(), currentModuleResetCount) : null;
+            boolean runInParallel = parallelism > 0 && examplesToRun.size() > 1;
+            if (!examplesToRun.isEmpty() && !runInParallel) {
+                PhaseTimer moduleEvaluation = metrics.startPhase(Phase.MODULE_EVALUATION);
+                try {
+                    moduleCache.evaluate(envInternal, targetCache, exemplifiedSources, moduleFingerprints);
+                } catch (Throwable e) {
+                    return BabylonianAnalysisTerminationResult.create(startMillis, e.getMessage());
+                } finally {
+                    moduleEvaluation.stop();
+                }
+            }
+
+            ResultDeltaEncoder encoder = new ResultDeltaEncoder(epoch, metrics.getAnalysisId(), deltaEncoding);
+            if (persistentCache != null && !examplesToRun.isEmpty()) {
+                sendCachedResults(server, sources, examplesToRun, result, encoder, metrics);
+            }
+            ScheduledFuture<?> future = sendDecorationsPeriodically(server, result, encoder, budget, metrics);
             try {
-                for (BabylonianAnalysisFileResult file : result.getFileResults()) {
-                    for (ExampleProbe example : file.getExamples()) {
-                        runExampleInstrumented(envInternal, result, example);
+                if (runInParallel) {
+                    final int finalSelectedLineNumber = selectedLineNumber;
+                    final String finalSelectedText = selectedText;
+                    getParallelRunner(envInternal).run(result, examplesToRun, exemplifiedSources, moduleFingerprints, () -> createResult(targetURI, sources, finalSelectedLineNumber, finalSelectedText), budget,
+                                    metrics, isIncremental);
+                } else if (!examplesToRun.isEmpty()) {
+                    EventBinding<BabylonianEventNodeFactory> probes = attachProbes(envInternal, result, scopeProbesToExample);
+                    LineProfiler profiler = LineProfiler.attachOrNull(envInternal, result, lineProfiling, trackAllocations);
+                    ExampleCanceller canceller = ExampleCanceller.attach(envInternal, scheduler);
+                    try {
+                        for (ExampleProbe example : examplesToRun) {
+                            if (budget.isCancelled()) {
+                                break;
+                            }
+                            runExampleInstrumented(envInternal, targetCache, probes.getElement(), profiler, canceller, example, budget, metrics, isIncremental);
+                        }
+                    } finally {
+                        canceller.dispose();
+                        probes.dispose();
+                        if (profiler != null) {
+                            profiler.dispose();
+                        }
                     }
                 }
             } finally {
                 future.cancel(true);
+                encoder.close();
+            }
+            if (budget.isCancelled()) {
+                return createSupersededResult(startMillis); // Partial results must not be cached
+            }
+            if (isIncremental) {
+                cache.update(sources, result);
             }
-            return BabylonianAnalysisTerminationResult.create(startMillis, result);
+            if (persistentCache != null) {
+                persistentCache.update(sources, result);
+                scheduler.execute(persistentCache::save);
+            }
+            PhaseTimer serialization = metrics.startPhase(Phase.SERIALIZATION);
+            JSONObject termination = BabylonianAnalysisTerminationResult.create(startMillis, result);
+            metrics.addSerialized(termination);
+            serialization.stop();
+            return termination;
         }
 
-        public int getTimeoutMillis() {
-            return 10000;
+        /**
+         * Creates the result of an analysis superseded by a newer one, which clients ignore.
+         */
+        private static JSONObject createSupersededResult(long startMillis) {
+            return BabylonianAnalysisTerminationResult.create(startMillis, SUPERSEDED_ERROR).put("superseded", true);
         }
 
-        public Object onTimeout(List<Object> arguments) {
-            return BabylonianAnalysisTerminationResult.create(startMillis, "Babylonian analysis timed out.");
-        }
-
-        private static void scanDocument(BabylonianAnalysisFileResult fileResult, Source source) {
-            for (int lineNumber = 1; lineNumber <= source.getLineCount(); lineNumber++) {
-                String line = source.getCharacters(lineNumber).toString();
-                if (line.contains(EXAMPLE_PREFIX)) {
-                    LinkedHashMap<String, String> attributes = getAttributesOrNull(line, EXAMPLE_PREFIX);
-                    if (attributes == null) {
-                        break; // Skip line, insufficient attributes for example
-                    }
-                    FunctionDefinition functionDefinition = findFunctionDefinition(lineNumber, source);
-                    if (functionDefinition == null) {
-                        break; // End of source reached
-                    }
-                    if (attributes.keySet().containsAll(functionDefinition.parameters)) {
-                        fileResult.addExample(new ExampleProbe(line, lineNumber, source.getLanguage(), functionDefinition, attributes));
-                    }
-                } else {
-                    boolean containsProbe = line.contains(PROBE_PREFIX);
-                    boolean containsAssertion = line.contains(ASSERTION_PREFIX);
-                    if (containsProbe || containsAssertion) {
-                        int triggerLine = findTriggerLine(lineNumber + 1, source);
-                        if (triggerLine < 0) {
-                            break; // End of source reached
-                        }
-                        AbstractProbe probe;
-                        if (containsProbe) {
-                            LinkedHashMap<String, String> attributes = getAttributesOrNull(line, PROBE_PREFIX);
-                            String expression = attributes == null ? null : attributes.get(StatementProbeWithExpression.PROBE_EXPRESSION_ATTRIBUTE);
-                            String exampleNameOrNull = attributes.get(ExampleProbe.EXAMPLE_FILTER_ATTRIBUTE);
-                            if (expression == null) {
-                                probe = new StatementProbe(exampleNameOrNull, lineNumber);
-                            } else {
-                                probe = new StatementProbeWithExpression(exampleNameOrNull, lineNumber, expression);
-                            }
-                        } else {
-                            LinkedHashMap<String, String> attributes = getAttributesOrNull(line, ASSERTION_PREFIX);
-                            if (attributes == null) {
-                                break; // Skip line, assertions must have attributes
-                            }
-                            String probeExpression;
-                            boolean isExpectedValue;
-                            String expected = attributes.get(AssertionProbe.ASSERTION_EXPECTED_ATTRIBUTE);
-                            if (expected != null) {
-                                probeExpression = expected;
-                                isExpectedValue = true;
-                            } else {
-                                String expression = attributes.get(AssertionProbe.ASSERTION_EXPRESSION_ATTRIBUTE);
-                                if (expression == null) {
-                                    break; // Skip line, insufficient attributes for assertion
-                                }
-                                probeExpression = expression;
-                                isExpectedValue = false;
-                            }
-                            String exampleNameOrNull = attributes.get(ExampleProbe.EXAMPLE_FILTER_ATTRIBUTE);
-                            probe = new AssertionProbe(exampleNameOrNull, lineNumber, probeExpression, isExpectedValue);
-                        }
-                        fileResult.addProbe(triggerLine, probe);
-                    }
+        /**
+         * Creates a result with the selection probe and all annotations of the given sources.
+         */
+        private BabylonianAnalysisResult createResult(URI targetURI, Map<URI, Source> sources, int selectedLineNumber, String selectedText) {
+            BabylonianAnalysisResult result = new BabylonianAnalysisResult(observationLimit);
+            if (selectedLineNumber > 0) {
+                try {
+                    String languageId = Source.findLanguage(targetURI.toURL());
+                    result.getOrCreateFile(targetURI, languageId).addProbe(selectedLineNumber, new SelectionProbe(null, selectedLineNumber, selectedText));
+                } catch (IOException e) {
+                    printError(e.getMessage());
                 }
             }
+            for (Map.Entry<URI, Source> entry : sources.entrySet()) {
+                Source source = entry.getValue();
+                annotationIndex.populate(entry.getKey(), source, result.getOrCreateFile(entry.getKey(), source.getLanguage()));
+            }
+            return result;
         }
 
-        private static FunctionDefinition findFunctionDefinition(int startLineNumber, Source source) {
-            for (int lineNumber = startLineNumber; lineNumber < source.getLineCount(); lineNumber++) {
-                String line = source.getCharacters(lineNumber).toString();
-                if (line.contains(EXAMPLE_PREFIX)) {
-                    continue; // Skip consecutive examples
-                }
-                Matcher m = EXTRACT_IDENTIFIER_AND_PARAMETERS.matcher(line);
-                if (m.find()) {
-                    // FIXME: workaround for R functions
-                    String identifier;
-                    if (line.contains(" <- function")) {
-                        identifier = line.substring(0, line.indexOf(" <- function"));
-                    } else {
-                        identifier = m.group(1);
-                    }
-                    return new FunctionDefinition(identifier, m.group(2).replaceAll(" ", "").split(","));
-                } else {
-                    printError("Unable to find function definition in:\n" + line);
-                    return null;
-                }
+        /**
+         * Looks up a value observed by the current analysis by its position in the result sent to
+         * the client.
+         */
+        ObjectInformation findObservedValueOrNull(URI uri, int lineNumber, String exampleName, int index) {
+            BabylonianAnalysisResult result = currentResult;
+            BabylonianAnalysisFileResult file = result == null ? null : result.getFileOrNull(uri);
+            if (file == null) {
+                return null;
             }
-            return null;
+            AbstractProbe probe = file.getAnnotatedProbeOrNull(lineNumber);
+            List<ObjectInformation> values = probe == null ? null : probe.getObservedValuesOrNull(exampleName);
+            return values == null || index >= values.size() ? null : values.get(index);
         }
 
-        private static int findTriggerLine(int startLineNumber, Source source) {
-            for (int lineNumber = startLineNumber; lineNumber < source.getLineCount(); lineNumber++) {
-                String line = source.getCharacters(lineNumber).toString();
-                if (line.isBlank() || line.contains(PROBE_PREFIX) || line.contains(ASSERTION_PREFIX)) {
-                    continue; // Skip consecutive probes and assertions
-                }
-                if (!line.isBlank()) {
-                    return lineNumber; // Trigger line must not be blank
-                }
+        void resetModules() {
+            moduleResetCount.incrementAndGet();
+        }
+
+        private synchronized ParallelExampleRunner getParallelRunner(Env envInternal) {
+            if (parallelRunner == null) {
+                parallelRunner = new ParallelExampleRunner(parallelism, envInternal, workerOptions, workerPermissions, scheduler, scopeProbesToExample, lineProfiling, trackAllocations);
             }
-            return -1;
+            return parallelRunner;
         }
 
-        private static LinkedHashMap<String, String> getAttributesOrNull(String line, String tagPrefix) {
-            int startIndex = line.indexOf(tagPrefix);
-            int endIndex = line.lastIndexOf('>') + 1;
-            assert startIndex > 0;
-            if (!(endIndex > 0)) {
-                return null;
+        synchronized void dispose() {
+            if (persistentCache != null) {
+                persistentCache.save();
             }
-            String xmlSource = line.substring(startIndex, endIndex);
-            try {
-                Element xml = XML_PARSER.parse(new ByteArrayInputStream(xmlSource.getBytes())).getDocumentElement();
-                LinkedHashMap<String, String> parametersAndValues = new LinkedHashMap<>();
-                NamedNodeMap attributes = xml.getAttributes();
-                for (int i = 0; i < attributes.getLength(); i++) {
-                    Node item = attributes.item(i);
-                    parametersAndValues.put(item.getNodeName(), item.getNodeValue());
-                }
-                return parametersAndValues;
-            } catch (SAXException | IOException e) {
-                e.printStackTrace();
-                return null;
+            if (parallelRunner != null) {
+                parallelRunner.close();
+                parallelRunner = null;
             }
         }
 
+        public int getTimeoutMillis() {
+            return TIMEOUT_MILLIS;
+        }
+
+        public Object onTimeout(List<Object> arguments) {
+            return BabylonianAnalysisTerminationResult.create(startMillis, "Babylonian analysis timed out.");
+        }
+
         public static final class FunctionDefinition {
             private final String identifier;
             private final LinkedHashSet<String> parameters;
 
-            private FunctionDefinition(String identifier, String[] parameters) {
+            FunctionDefinition(String identifier, String[] parameters) {
                 this.identifier = identifier;
                 this.parameters = new LinkedHashSet<>();
                 for (String parameter : parameters) {
@@ -295,142 +563,392 @@ public class BabylonianAnalysisExtension extends TruffleInstrument implements LS
             }
         }
 
-        private ScheduledFuture<?> sendDecorationsPeriodically(LSPServerAccessor server, BabylonianAnalysisResult result) {
+        /**
+         * Sends the cached results of all files with examples to run, so that they are shown until
+         * the examples observe new values.
+         */
+        private void sendCachedResults(LSPServerAccessor server, Map<URI, Source> sources, List<ExampleProbe> examplesToRun, BabylonianAnalysisResult result, ResultDeltaEncoder encoder,
+                        AnalysisMetrics metrics) {
+            ArrayList<JSONObject> fileJSONs = new ArrayList<>();
+            for (BabylonianAnalysisFileResult file : result.getFileResults()) {
+                Source source = sources.get(file.getURI());
+                if (source != null && file.getExamples().stream().anyMatch(examplesToRun::contains)) {
+                    JSONObject fileJSON = persistentCache.getFileJSONOrNull(file.getURI(), source);
+                    if (fileJSON != null) {
+                        fileJSONs.add(fileJSON);
+                    }
+                }
+            }
+            synchronized (encoder) {
+                PhaseTimer serialization = metrics.startPhase(Phase.SERIALIZATION);
+                JSONObject delta = encoder.encodeCachedOrNull(fileJSONs);
+                metrics.addSerialized(delta);
+                serialization.stop();
+                if (delta != null) {
+                    server.sendCustomNotification(BABYLONIAN_ANALYSIS_DELTA_METHOD, delta);
+                }
+            }
+        }
+
+        /**
+         * Periodically sends the observations made since the previous notification. Ticks without
+         * new observations are skipped, the final result is sent as a complete snapshot. Nothing
+         * is sent once the analysis is superseded.
+         */
+        private ScheduledFuture<?> sendDecorationsPeriodically(LSPServerAccessor server, BabylonianAnalysisResult result, ResultDeltaEncoder encoder, ExampleBudget budget, AnalysisMetrics metrics) {
             return scheduler.scheduleAtFixedRate(new Runnable() {
                 public void run() {
-                    server.sendCustomNotification(BABYLONIAN_ANALYSIS_RESULT_METHOD, result.toJSON());
+                    synchronized (encoder) { // Ensure no delta is sent once the encoder is closed
+                        if (budget.isCancelled()) {
+                            return;
+                        }
+                        PhaseTimer serialization = metrics.startPhase(Phase.SERIALIZATION);
+                        JSONObject delta = encoder.encodeOrNull(result);
+                        metrics.addSerialized(delta);
+                        serialization.stop();
+                        if (delta != null) {
+                            server.sendCustomNotification(BABYLONIAN_ANALYSIS_DELTA_METHOD, delta);
+                        }
+                    }
                 }
             }, 250, 500, TimeUnit.MILLISECONDS);
         }
 
-        private static void runExampleInstrumented(Env env, BabylonianAnalysisResult result, ExampleProbe example) {
-            String languageId = example.getLanguageId();
-            LanguageInfo languageInfo = env.getLanguages().get(languageId);
-            Object scope = env.getScope(languageInfo);
-            String targetIdentifier = example.getTargetIdentifier();
-            Object targetObject;
-            if (!INTEROP.isMemberReadable(scope, targetIdentifier)) {
-                String error = targetIdentifier + " not readable";
-                example.addObservedValue(ObjectInformation.createError("<unknown>", error, error));
-                return;
-            }
+        /**
+         * Attaches the probes of a result once for all examples run until the binding is disposed.
+         * If <code>isThreadScoped</code> is set, probes only record values observed by the thread
+         * running an example.
+         */
+        static EventBinding<BabylonianEventNodeFactory> attachProbes(Env env, BabylonianAnalysisResult result, boolean isThreadScoped) {
+            return env.getInstrumenter().attachExecutionEventFactory(result.getSourceSectionFilter(), new BabylonianEventNodeFactory(env, result, isThreadScoped));
+        }
+
+        /**
+         * Runs an example with the probes of its result and, if given, profiles its lines. An
+         * example exceeding its budget is stopped by its probes or its canceller, keeping the
+         * values observed so far, and reports the exceeded budget as its result.
+         */
+        static void runExampleInstrumented(Env env, ExampleTargetCache targetCache, BabylonianEventNodeFactory probes, LineProfiler profilerOrNull, ExampleCanceller canceller, ExampleProbe example,
+                        ExampleBudget budget, AnalysisMetrics metrics, boolean recordCoverage) {
+            ExampleMetrics exampleMetrics = metrics.startExample(example.getExampleName());
             try {
-                targetObject = INTEROP.readMember(scope, targetIdentifier);
-            } catch (UnsupportedMessageException | UnknownIdentifierException e) {
-                example.addObservedValue(ObjectInformation.createError("<unknown>", e.getMessage(), e.getMessage()));
-                return;
+                runExampleInstrumented(env, targetCache, probes, profilerOrNull, canceller, example, budget, metrics, exampleMetrics, recordCoverage);
+            } finally {
+                exampleMetrics.finish();
             }
-            if (!INTEROP.isExecutable(targetObject)) {
-                String error = targetIdentifier + " not executable";
-                example.addObservedValue(ObjectInformation.createError("<unknown>", error, error));
-                return;
+        }
+
+        private static void runExampleInstrumented(Env env, ExampleTargetCache targetCache, BabylonianEventNodeFactory probes, LineProfiler profilerOrNull, ExampleCanceller canceller,
+                        ExampleProbe example, ExampleBudget budget, AnalysisMetrics metrics, ExampleMetrics exampleMetrics, boolean recordCoverage) {
+            String languageId = example.getLanguageId();
+            String targetIdentifier = example.getTargetIdentifier();
+            Object targetObject = targetCache.getTargetOrNull(languageId, targetIdentifier);
+            if (targetObject == null) {
+                LanguageInfo languageInfo = env.getLanguages().get(languageId);
+                Object scope = env.getScope(languageInfo);
+                if (!INTEROP.isMemberReadable(scope, targetIdentifier)) {
+                    String error = targetIdentifier + " not readable";
+                    example.addObservedValue(ObjectInformation.createError("<unknown>", error, error));
+                    return;
+                }
+                try {
+                    targetObject = INTEROP.readMember(scope, targetIdentifier);
+                } catch (UnsupportedMessageException | UnknownIdentifierException e) {
+                    example.addObservedValue(ObjectInformation.createError("<unknown>", e.getMessage(), e.getMessage()));
+                    return;
+                }
+                if (!INTEROP.isExecutable(targetObject)) {
+                    String error = targetIdentifier + " not executable";
+                    example.addObservedValue(ObjectInformation.createError("<unknown>", error, error));
+                    return;
+                }
+                targetCache.putTarget(languageId, targetIdentifier, targetObject);
             }
             final Object[] arguments;
+            PhaseTimer argumentParsing = metrics.startPhase(Phase.ARGUMENT_PARSING);
             try {
-                arguments = getExampleArguments(env, languageId, example.getTargetArgumentExpressions());
+                arguments = targetCache.getArguments(env, languageId, example.getTargetArgumentExpressions());
             } catch (Throwable e) {
                 example.addObservedValue(ObjectInformation.createError("<unknown>", e.getMessage(), e.getMessage()));
                 return;
+            } finally {
+                exampleMetrics.parseArguments(argumentParsing);
             }
-            BabylonianEventNodeFactory babylonianEventNodeFactory = new BabylonianEventNodeFactory(env, result, example);
-            ArrayList<EventBinding<ExecutionEventNodeFactory>> bindings = new ArrayList<>();
-            for (SourceSectionFilter filter : result.getSourceSectionFilters()) {
-                bindings.add(env.getInstrumenter().attachExecutionEventFactory(filter, babylonianEventNodeFactory));
+            // Coverage is recorded when nodes are created, so it needs a new binding per example
+            EventBinding<CoverageNodeFactory> coverage = recordCoverage ? env.getInstrumenter().attachExecutionEventFactory(COVERAGE_FILTER, new CoverageNodeFactory(example)) : null;
+            final Object exampleResult;
+            PhaseTimer execution = metrics.startPhase(Phase.EXECUTION);
+            probes.startExample(example, budget, exampleMetrics);
+            if (profilerOrNull != null) {
+                profilerOrNull.startExample(example);
             }
+            canceller.startExample(budget);
             try {
-                Object exampleResult = INTEROP.execute(targetObject, arguments);
-                ObjectInformation info = ObjectInformation.create(example.getInvocationExpression(), exampleResult);
-                example.addObservedValue(info);
+                exampleResult = INTEROP.execute(targetObject, arguments);
             } catch (Throwable e) {
                 example.addObservedValue(ObjectInformation.createError("<unknown>", e.getMessage(), e.getMessage()));
+                return;
             } finally {
-                for (EventBinding<ExecutionEventNodeFactory> binding : bindings) {
-                    binding.dispose();
+                canceller.stopExample();
+                if (profilerOrNull != null) {
+                    profilerOrNull.stopExample();
+                }
+                probes.stopExample();
+                exampleMetrics.execute(execution);
+                if (coverage != null) {
+                    coverage.dispose();
                 }
             }
+            // Creating the display string may run guest code, which must not be probed
+            long captureStartNanos = System.nanoTime();
+            example.addObservedValue(ObjectInformation.create(example.getInvocationExpression(), exampleResult));
+            exampleMetrics.addCapture(System.nanoTime() - captureStartNanos);
         }
 
-        private static Object[] getExampleArguments(Env env, String languageId, String[] expressions) throws Throwable {
-            final Object[] arguments = new Object[expressions.length];
-            for (int i = 0; i < arguments.length; i++) {
-                arguments[i] = env.parse(Source.newBuilder(languageId, expressions[i], "<argument expression>").build()).call();
+        /**
+         * Records the lines of every function reached by an example. Nodes are created lazily on
+         * first execution, so no event node is needed and the coverage comes at no runtime cost.
+         */
+        private static final class CoverageNodeFactory implements ExecutionEventNodeFactory {
+            private final ExampleProbe example;
+
+            private CoverageNodeFactory(ExampleProbe example) {
+                this.example = example;
+            }
+
+            public ExecutionEventNode create(EventContext context) {
+                SourceSection section = context.getInstrumentedSourceSection();
+                if (section != null && section.isAvailable()) {
+                    example.addCoveredLines(toVSCodeURI(section.getSource().getURI()), section.getStartLine(), section.getEndLine());
+                }
+                return null;
             }
-            return arguments;
         }
 
-        private static final class BabylonianEventNodeFactory implements ExecutionEventNodeFactory {
+        /**
+         * Creates the nodes of all probes of a result. The factory stays attached while examples
+         * run one after another and nodes record into the example that is currently running.
+         * Nodes are only active while the invocation of an example is running (on its thread if
+         * the factory is thread-scoped), any other execution only checks this flag.
+         */
+        static final class BabylonianEventNodeFactory implements ExecutionEventNodeFactory {
             private final Env env;
             private final BabylonianAnalysisResult result;
-            private final ExampleProbe example;
-
-            private BabylonianEventNodeFactory(Env env, BabylonianAnalysisResult result, ExampleProbe example) {
+            private final boolean isThreadScoped;
+            private final ConcurrentHashMap<AbstractProbe, SourceSection> probedSections = new ConcurrentHashMap<>();
+            private volatile ExampleProbe currentExample;
+            private volatile Thread exampleThread;
+            /* Budget and metrics of the current example, published by the volatile writes above. */
+            private ExampleBudget budget;
+            private ExampleMetrics exampleMetrics;
+            private long deadlineNanos;
+            private long remainingSteps;
+
+            private BabylonianEventNodeFactory(Env env, BabylonianAnalysisResult result, boolean isThreadScoped) {
                 this.env = env;
                 this.result = result;
-                this.example = example;
+                this.isThreadScoped = isThreadScoped;
+            }
+
+            /**
+             * Sets the example that nodes record into and starts its budget. Must be called by the
+             * thread running the example.
+             */
+            void startExample(ExampleProbe example, ExampleBudget exampleBudget, ExampleMetrics metrics) {
+                budget = exampleBudget;
+                exampleMetrics = metrics;
+                deadlineNanos = exampleBudget.getDeadlineNanos();
+                remainingSteps = exampleBudget.getStepLimit();
+                exampleThread = Thread.currentThread();
+                currentExample = example;
             }
 
+            void stopExample() {
+                exampleThread = null;
+                currentExample = null;
+                exampleMetrics.setProbeHits(budget.getStepLimit() - Math.max(0, remainingSteps));
+            }
+
+            /**
+             * Counts a probe hit of the current example and stops the example by unwinding the
+             * guest stack once it exceeded its budget. Probe hits of other threads are counted
+             * as well if the factory is not thread-scoped, so the budget is only approximate
+             * then.
+             */
+            private void consumeStep() {
+                if (--remainingSteps < 0 || System.nanoTime() - deadlineNanos > 0 || budget.isCancelled()) {
+                    CompilerDirectives.transferToInterpreter();
+                    throw createBudgetExceeded();
+                }
+            }
+
+            @TruffleBoundary
+            private BudgetExceededException createBudgetExceeded() {
+                return new BudgetExceededException(budget.getExceededMessage(remainingSteps < 0, deadlineNanos));
+            }
+
+            private boolean isActive() {
+                Thread thread = exampleThread;
+                return thread != null && (!isThreadScoped || thread == Thread.currentThread());
+            }
+
+            /**
+             * Resolves the probe of the instrumented node once, so that executing the node only
+             * needs to record the observed value. Only the first statement created on a line is
+             * probed (usually the outermost one, as nodes are created when first executed), so that
+             * nested statements on the same line do not record their values as well.
+             */
             public ExecutionEventNode create(EventContext context) {
-                return new BabylonianEventNode(env, result, example, context);
+                SourceSection section = context.getInstrumentedSourceSection();
+                Source source = section.getSource();
+                int startLine = section.getStartLine();
+                if (!result.isProbedLine(source.getURI(), startLine)) {
+                    return null; // Line is only probed in another file
+                }
+                BabylonianAnalysisFileResult fileResult = result.getOrCreateFile(toVSCodeURI(source.getURI()), source.getLanguage());
+                AbstractProbe probe = fileResult.get(startLine);
+                assert probe != null : "Probed lines are the lines of the probes of a file";
+                SourceSection probedSection = probedSections.putIfAbsent(probe, section);
+                if (probedSection != null && !probedSection.equals(section)) {
+                    return null;
+                }
+                return new BabylonianEventNode(env, this, context, section, probe);
             }
 
             private static final class BabylonianEventNode extends ExecutionEventNode {
                 private static final String INLINE_PROBE_EXPRESSION_NAME = "<probe>";
+                private static final Function<String, Object> NO_INLINE_EVALUATOR = expression -> {
+                    throw CompilerDirectives.shouldNotReachHere("Probe does not use inline evaluation");
+                };
 
                 @Child private ExecutableNode inlineExecutionNode;
+                @CompilationFinal private String inlineParseError;
 
                 private final Env env;
-                private final BabylonianAnalysisResult result;
-                private final ExampleProbe example;
+                private final BabylonianEventNodeFactory factory;
                 private final EventContext context;
+                private final SourceSection section;
+                private final AbstractProbe probe;
+                private final String inlineExpression;
 
-                private BabylonianEventNode(Env env, BabylonianAnalysisResult result, ExampleProbe example, EventContext context) {
+                private BabylonianEventNode(Env env, BabylonianEventNodeFactory factory, EventContext context, SourceSection section, AbstractProbe probe) {
                     this.env = env;
-                    this.result = result;
-                    this.example = example;
+                    this.factory = factory;
                     this.context = context;
+                    this.section = section;
+                    this.probe = probe;
+                    this.inlineExpression = probe.getInlineExpressionOrNull();
                 }
 
                 @Override
                 public void onReturnValue(VirtualFrame frame, Object value) {
-                    SourceSection section = context.getInstrumentedSourceSection();
-                    Source source = section.getSource();
-                    Function<String, Object> inlineEvalutator = expression -> {
-                        try {
-                            return executeInline(frame, Source.newBuilder(source.getLanguage(), expression, INLINE_PROBE_EXPRESSION_NAME).build());
-                        } catch (Exception e) {
-                            return e.getMessage();
-                        }
-                    };
-                    BabylonianAnalysisFileResult fileResult = result.getOrCreateFile(toVSCodeURI(source.getURI()), source.getLanguage());
-                    int startLine = section.getStartLine();
-                    AbstractProbe probe = fileResult.get(startLine);
-                    if (probe == null) {
-                        probe = new OrphanProbe(null, startLine);
-                        fileResult.addProbe(startLine, probe);
+                    if (!factory.isActive()) {
+                        return;
+                    }
+                    factory.consumeStep();
+                    if (inlineExpression != null) {
+                        applyWithInlineResult(value, executeInline(frame));
+                    } else {
+                        apply(value);
                     }
-                    probe.apply(example, section, value, inlineEvalutator);
                 }
 
                 @Override
                 protected void onReturnExceptional(VirtualFrame frame, Throwable exception) {
-                    onReturnValue(frame, exception.getMessage());
+                    if (factory.isActive() && !(exception instanceof BudgetExceededException)) {
+                        onReturnValue(frame, getMessage(exception));
+                    }
                 }
 
-                private Object executeInline(VirtualFrame frame, Source source) {
-                    CompilerDirectives.transferToInterpreterAndInvalidate();
-                    ExecutableNode newNode = env.parseInline(source, context.getInstrumentedNode(), frame.materialize());
-                    if (inlineExecutionNode == null) {
-                        inlineExecutionNode = insert(newNode);
-                    } else {
-                        inlineExecutionNode.replace(newNode);
+                @TruffleBoundary
+                private static String getMessage(Throwable exception) {
+                    return exception.getMessage();
+                }
+
+                @TruffleBoundary
+                private void apply(Object value) {
+                    ExampleProbe example = factory.currentExample;
+                    if (example != null) {
+                        long startNanos = System.nanoTime();
+                        probe.apply(example, section, value, NO_INLINE_EVALUATOR);
+                        factory.exampleMetrics.addCapture(System.nanoTime() - startNanos);
+                    }
+                }
+
+                @TruffleBoundary
+                private void applyWithInlineResult(Object value, Object inlineResult) {
+                    ExampleProbe example = factory.currentExample;
+                    if (example != null) {
+                        long startNanos = System.nanoTime();
+                        probe.apply(example, section, value, expression -> {
+                            assert expression.equals(inlineExpression);
+                            return inlineResult;
+                        });
+                        factory.exampleMetrics.addCapture(System.nanoTime() - startNanos);
+                    }
+                }
+
+                /**
+                 * Evaluates the inline expression of the probe, which is parsed only once per node
+                 * and then stays a stable child.
+                 */
+                private Object executeInline(VirtualFrame frame) {
+                    if (inlineExecutionNode == null && inlineParseError == null) {
+                        CompilerDirectives.transferToInterpreterAndInvalidate();
+                        parseInline(frame.materialize());
+                    }
+                    if (inlineParseError != null) {
+                        return inlineParseError;
+                    }
+                    try {
+                        return inlineExecutionNode.execute(frame);
+                    } catch (Exception e) {
+                        return getMessage(e);
+                    }
+                }
+
+                private void parseInline(MaterializedFrame frame) {
+                    Source source = Source.newBuilder(section.getSource().getLanguage(), inlineExpression, INLINE_PROBE_EXPRESSION_NAME).build();
+                    try {
+                        ExecutableNode node = env.parseInline(source, context.getInstrumentedNode(), frame);
+                        if (node == null) {
+                            inlineParseError = "Inline evaluation not supported by " + source.getLanguage();
+                            return;
+                        }
+                        inlineExecutionNode = insert(node);
+                        notifyInserted(inlineExecutionNode);
+                    } catch (Exception e) {
+                        inlineParseError = String.valueOf(e.getMessage());
                     }
-                    notifyInserted(inlineExecutionNode);
-                    return inlineExecutionNode.execute(frame);
                 }
             }
         }
     }
 
+    /**
+     * Unwinds the guest stack of an example that exceeded its budget. Guest languages do not
+     * catch {@link ThreadDeath}, and Truffle propagates it from event nodes.
+     */
+    static final class BudgetExceededException extends ThreadDeath {
+        private static final long serialVersionUID = 1L;
+
+        private final String message;
+
+        BudgetExceededException(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
     /**
      * Convert Windows URIs (e.g. "file:///c%3A/Users/Bob/test.js") to Truffle Source URIs (e.g.
      * "file:///C:/Users/Bob/test.js").
@@ -447,7 +965,7 @@ public class BabylonianAnalysisExtension extends TruffleInstrument implements LS
     /**
      * Reverse function of {@link #toSourceURI(URI)}.
      */
-    private static URI toVSCodeURI(URI uri) {
+    static URI toVSCodeURI(URI uri) {
         String string = uri.toString();
         if (string.lastIndexOf(':') == 9) {
             return URI.create(string.substring(0, 8) + string.substring(8, 9).toLowerCase() + "%3A/" + string.substring(11));
@@ -456,14 +974,30 @@ public class BabylonianAnalysisExtension extends TruffleInstrument implements LS
         }
     }
 
-    private static void printError(String message) {
+    static void printError(String message) {
         // Checkstyle: stop
         System.err.println(message);
         // Checkstyle: resume
     }
 
+    Env getEnv() {
+        return env;
+    }
+
     @Override
     protected void onCreate(Env env) {
+        this.env = env;
+        command = new BabylonianAnalysisCommand(env.getOptions());
         env.registerService(this);
     }
+
+    @Override
+    protected void onDispose(Env env) {
+        command.dispose();
+    }
+
+    @Override
+    protected OptionDescriptors getOptionDescriptors() {
+        return new BabylonianAnalysisExtensionOptionDescriptors();
+    }
 }
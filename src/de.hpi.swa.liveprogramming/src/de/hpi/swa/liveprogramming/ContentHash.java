@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * SHA-256 hashes of source contents, used to detect whether a source changed.
+ */
+final class ContentHash {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final MessageDigest digest;
+
+    ContentHash() {
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String of(Source source) {
+        return new ContentHash().update(source.getCharacters().toString()).toHexString();
+    }
+
+    /**
+     * Adds a string, terminated so that consecutive strings cannot be confused.
+     */
+    ContentHash update(String string) {
+        digest.update(string.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return this;
+    }
+
+    String toHexString() {
+        byte[] bytes = digest.digest();
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.graalvm.tools.api.lsp.LSPServerAccessor;
+
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Caches the language of each document expressions are displayed for and the call targets of its
+ * expressions, so that displaying the same expression again neither detects the language nor
+ * parses it again. The call targets of a document are invalidated whenever the server provides a
+ * source with different content, and dropped once the document is closed. Documents the server
+ * has no source for are not cached, as changes to them could not be detected.
+ */
+final class DisplayExpressionCache {
+    private static final String EXPRESSION_NAME = "<display expression>";
+    private static final int MAX_EXPRESSION_TARGETS = 256;
+
+    private final HashMap<URI, DocumentTargets> documents = new HashMap<>();
+
+    /**
+     * Returns the call targets of the expressions of a document, parsing only expressions that
+     * were not parsed since the document last changed.
+     */
+    synchronized DocumentTargets get(LSPServerAccessor server, URI uri) throws IOException {
+        documents.keySet().retainAll(server.getOpenFileURI2LangId().keySet());
+        Source source = server.getSource(uri);
+        if (source == null || !source.hasCharacters()) {
+            return new DocumentTargets(Source.findLanguage(uri.toURL()), null);
+        }
+        DocumentTargets targets = documents.get(uri);
+        if (targets == null) {
+            targets = new DocumentTargets(source.getLanguage(), source);
+            documents.put(uri, targets);
+        } else {
+            targets.update(source);
+        }
+        return targets;
+    }
+
+    /**
+     * Call targets of the expressions of a document.
+     */
+    static final class DocumentTargets {
+        private final String languageId;
+        private Source source;
+        private final LinkedHashMap<String, CallTarget> expressionTargets = new LinkedHashMap<String, CallTarget>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CallTarget> eldest) {
+                return size() > MAX_EXPRESSION_TARGETS;
+            }
+        };
+
+        private DocumentTargets(String languageId, Source source) {
+            this.languageId = languageId;
+            this.source = source;
+        }
+
+        /*
+         * Contents are only compared if the server built a new source, which is far cheaper than
+         * hashing them.
+         */
+        private synchronized void update(Source newSource) {
+            if (newSource != source && !newSource.equals(source)) {
+                expressionTargets.clear();
+            }
+            source = newSource;
+        }
+
+        synchronized CallTarget getOrParse(Env env, String expression) throws IOException {
+            CallTarget callTarget = expressionTargets.get(expression);
+            if (callTarget == null) {
+                callTarget = env.parse(Source.newBuilder(languageId, expression, EXPRESSION_NAME).build());
+                expressionTargets.put(expression, callTarget);
+            }
+            return callTarget;
+        }
+    }
+}
@@ -13,11 +13,12 @@ import org.graalvm.tools.api.lsp.LSPCommand;
 import org.graalvm.tools.api.lsp.LSPExtension;
 import org.graalvm.tools.api.lsp.LSPServerAccessor;
 
-import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument.Registration;
-import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
 
+import de.hpi.swa.liveprogramming.DisplayExpressionCache.DocumentTargets;
 import de.hpi.swa.liveprogramming.types.ObjectInformation;
 
 @Registration(id = DisplayExpressionExtension.ID, name = DisplayExpressionExtension.NAME, version = DisplayExpressionExtension.VERSION, services = LSPExtension.class)
@@ -25,28 +26,68 @@ public final class DisplayExpressionExtension extends TruffleInstrument implemen
     protected static final String ID = "display-expression-lsp-extension";
     protected static final String NAME = "Display Expression LSP Extension";
     protected static final String VERSION = "0.1";
+    private static final String TIMEOUT_MESSAGE = "Expression took too long to run.";
+
+    private final DisplayExpressionCache cache = new DisplayExpressionCache();
 
     public List<LSPCommand> getCommands() {
-        return Arrays.asList(new DisplayExpressionCommand());
+        return Arrays.asList(new DisplayExpressionCommand(cache), new DisplayExpressionsCommand(cache));
+    }
+
+    private static JSONObject display(LSPServerAccessor server, Env env, DisplayExpressionCache cache, URI uri, String expression) {
+        try {
+            DocumentTargets targets = cache.get(server, uri);
+            return ObjectInformation.createDetailedJSON(expression, targets.getOrParse(env, expression).call());
+        } catch (Throwable e) {
+            return ObjectInformation.createError(expression, "", e.getMessage()).getJSON();
+        }
     }
 
     private static final class DisplayExpressionCommand implements LSPCommand {
+        private final DisplayExpressionCache cache;
+
+        private DisplayExpressionCommand(DisplayExpressionCache cache) {
+            this.cache = cache;
+        }
 
         public String getName() {
             return "display_expression";
         }
 
+        public Object execute(LSPServerAccessor server, Env env, List<Object> arguments) {
+            return display(server, env, cache, URI.create((String) arguments.get(0)), (String) arguments.get(1));
+        }
+
+        public int getTimeoutMillis() {
+            return 5000;
+        }
+
+        public Object onTimeout(List<Object> arguments) {
+            return ObjectInformation.createError((String) arguments.get(1), "", TIMEOUT_MESSAGE).getJSON();
+        }
+    }
+
+    /**
+     * Displays all expressions following the URI of their document in one request, in order.
+     */
+    private static final class DisplayExpressionsCommand implements LSPCommand {
+        private final DisplayExpressionCache cache;
+
+        private DisplayExpressionsCommand(DisplayExpressionCache cache) {
+            this.cache = cache;
+        }
+
+        public String getName() {
+            return "display_expressions";
+        }
+
         public Object execute(LSPServerAccessor server, Env env, List<Object> arguments) {
             URI uri = URI.create((String) arguments.get(0));
-            String selectedText = (String) arguments.get(1);
-            try {
-                String languageId = Source.findLanguage(uri.toURL());
-                Source source = Source.newBuilder(languageId, selectedText, "<display expression>").build();
-                CallTarget callTarget = env.parse(source);
-                return ObjectInformation.create(selectedText, callTarget.call()).getJSON();
-            } catch (Throwable e) {
-                return ObjectInformation.createError(selectedText, "", e.getMessage()).getJSON();
+            JSONArray results = new JSONArray();
+            for (Object expression : arguments.subList(1, arguments.size())) {
+                results.put(display(server, env, cache, uri, (String) expression));
             }
+            return results;
         }
 
         public int getTimeoutMillis() {
@@ -54,7 +95,11 @@ public final class DisplayExpressionExtension extends TruffleInstrument implemen
         }
 
         public Object onTimeout(List<Object> arguments) {
-            return ObjectInformation.createError((String) arguments.get(1), "", "Expression took too long to run.").getJSON();
+            JSONArray results = new JSONArray();
+            for (Object expression : arguments.subList(1, arguments.size())) {
+                results.put(ObjectInformation.createError((String) expression, "", TIMEOUT_MESSAGE).getJSON());
+            }
+            return results;
         }
     }
 
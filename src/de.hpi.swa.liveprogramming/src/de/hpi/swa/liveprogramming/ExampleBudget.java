@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.util.concurrent.TimeUnit;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.Truffle;
+
+/**
+ * Time and step budget of each example of an analysis. Every example may run for at most its
+ * timeout and reach probes at most the step limit times, but never beyond the deadline of the
+ * whole analysis, so that the analysis can still report the results of all other examples. The
+ * budget of all examples is exhausted at once if the analysis is cancelled, which the
+ * {@link ExampleCanceller} observes through an assumption.
+ */
+final class ExampleBudget {
+    private final long timeoutNanos;
+    private final long stepLimit;
+    private final long analysisDeadlineNanos;
+    private final Assumption notCancelled = Truffle.getRuntime().createAssumption("Analysis not cancelled");
+    private volatile boolean isCancelled;
+
+    /**
+     * A timeout or step limit of <code>0</code> only limits examples by the analysis deadline.
+     */
+    ExampleBudget(long timeoutMillis, long stepLimit, long analysisDeadlineNanos) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.stepLimit = stepLimit;
+        this.analysisDeadlineNanos = analysisDeadlineNanos;
+    }
+
+    /**
+     * Returns the deadline of an example starting now, in terms of {@link System#nanoTime()}.
+     */
+    long getDeadlineNanos() {
+        if (timeoutNanos <= 0) {
+            return analysisDeadlineNanos;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        return deadline - analysisDeadlineNanos < 0 ? deadline : analysisDeadlineNanos;
+    }
+
+    /**
+     * Stops all examples of the analysis at their next statement.
+     */
+    void cancel() {
+        isCancelled = true;
+        notCancelled.invalidate();
+    }
+
+    Assumption getNotCancelledAssumption() {
+        return notCancelled;
+    }
+
+    boolean isCancelled() {
+        return isCancelled;
+    }
+
+    long getStepLimit() {
+        return stepLimit <= 0 ? Long.MAX_VALUE : stepLimit;
+    }
+
+    String getExceededMessage(boolean isStepLimit, long deadlineNanos) {
+        if (isCancelled) {
+            return "Example stopped as the analysis was superseded.";
+        } else if (isStepLimit) {
+            return "Example exceeded its budget of " + stepLimit + " probe hits.";
+        } else if (deadlineNanos == analysisDeadlineNanos) {
+            return "Example stopped to finish analysis in time.";
+        } else {
+            return "Example exceeded its budget of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms.";
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+import de.hpi.swa.liveprogramming.BabylonianAnalysisExtension.BudgetExceededException;
+
+/**
+ * Stops the running example once it overran its deadline or its analysis was cancelled, also if
+ * it never reaches a probe (e.g. in an endless loop). Each example and each idle period between
+ * examples has its own assumption, which is invalidated when it ends, and a timer invalidates the
+ * assumption of an example at its deadline. Cancelling the analysis invalidates the assumption of
+ * its {@link ExampleBudget}. The nodes on all statements and function entries only check the
+ * assumptions they saw last, which compiles to nothing while they are valid, and pick up the
+ * assumptions of the current example once one of them is invalidated. Nodes created during an
+ * earlier example or while no example was running therefore still stop later examples. Examples
+ * are unwound at their next statement once they are overdue or cancelled. The canceller stays
+ * attached while examples run one after another.
+ */
+final class ExampleCanceller implements ExecutionEventNodeFactory {
+    private static final SourceSectionFilter FILTER = SourceSectionFilter.newBuilder().tagIs(StandardTags.StatementTag.class, StandardTags.RootTag.class).build();
+
+    private final ScheduledExecutorService timer;
+    /* Never invalidated, checked instead of the cancellation of an analysis while idle. */
+    private final Assumption notRunning = Truffle.getRuntime().createAssumption("No example running");
+    private EventBinding<ExampleCanceller> binding;
+    private volatile Thread exampleThread;
+    private volatile ExampleBudget budget;
+    private volatile long deadlineNanos;
+    private volatile Assumption currentPeriod = Truffle.getRuntime().createAssumption("Idle");
+    private volatile Assumption notCancelled = notRunning;
+    private ScheduledFuture<?> deadlineTimer;
+
+    private ExampleCanceller(ScheduledExecutorService timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Attaches a canceller to all statements and function entries, whose deadlines are
+     * scheduled on the given timer.
+     */
+    static ExampleCanceller attach(Env env, ScheduledExecutorService timer) {
+        ExampleCanceller canceller = new ExampleCanceller(timer);
+        canceller.binding = env.getInstrumenter().attachExecutionEventFactory(FILTER, canceller);
+        return canceller;
+    }
+
+    void dispose() {
+        binding.dispose();
+    }
+
+    /**
+     * Schedules the deadline of an example starting now. Must be called by the thread running the
+     * example.
+     */
+    void startExample(ExampleBudget exampleBudget) {
+        long exampleDeadlineNanos = exampleBudget.getDeadlineNanos();
+        Assumption example = Truffle.getRuntime().createAssumption("Example before deadline");
+        Assumption idle = currentPeriod;
+        budget = exampleBudget;
+        deadlineNanos = exampleDeadlineNanos;
+        exampleThread = Thread.currentThread();
+        currentPeriod = example;
+        notCancelled = exampleBudget.getNotCancelledAssumption();
+        idle.invalidate();
+        deadlineTimer = timer.schedule(() -> example.invalidate(), exampleDeadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    void stopExample() {
+        deadlineTimer.cancel(false);
+        Assumption example = currentPeriod;
+        exampleThread = null;
+        currentPeriod = Truffle.getRuntime().createAssumption("Idle");
+        notCancelled = notRunning;
+        example.invalidate();
+    }
+
+    /**
+     * Unwinds the stack of the example if the current thread runs it and it is overdue or
+     * cancelled. Other threads continue.
+     */
+    @TruffleBoundary
+    private void stopIfOverdue() {
+        ExampleBudget currentBudget = budget;
+        if (exampleThread == Thread.currentThread() && (System.nanoTime() - deadlineNanos >= 0 || currentBudget.isCancelled())) {
+            throw new BudgetExceededException(currentBudget.getExceededMessage(false, deadlineNanos));
+        }
+    }
+
+    public ExecutionEventNode create(EventContext context) {
+        return new CancellationNode(this);
+    }
+
+    private static final class CancellationNode extends ExecutionEventNode {
+        private final ExampleCanceller canceller;
+        @CompilationFinal private Assumption period;
+        @CompilationFinal private Assumption notCancelled;
+
+        private CancellationNode(ExampleCanceller canceller) {
+            this.canceller = canceller;
+            this.period = canceller.currentPeriod;
+            this.notCancelled = canceller.notCancelled;
+        }
+
+        @Override
+        protected void onEnter(VirtualFrame frame) {
+            if (!period.isValid() || !notCancelled.isValid()) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                canceller.stopIfOverdue();
+                period = canceller.currentPeriod; // Assumptions of the current example or idle period
+                notCancelled = canceller.notCancelled;
+            }
+        }
+    }
+}
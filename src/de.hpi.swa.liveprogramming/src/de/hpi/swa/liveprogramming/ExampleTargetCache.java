@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Caches the call targets of example argument expressions per language and the target functions
+ * of examples, so that examples can run without parsing arguments or resolving their target
+ * again. Targets of a language are invalidated whenever a source of that language is evaluated,
+ * as this may redefine them. A cache belongs to the engine of its call targets and must only be
+ * used by one thread at a time.
+ */
+final class ExampleTargetCache {
+    private static final String ARGUMENT_EXPRESSION_NAME = "<argument expression>";
+    private static final int MAX_ARGUMENT_TARGETS = 1024;
+
+    private final LinkedHashMap<String, CallTarget> argumentTargets = new LinkedHashMap<String, CallTarget>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CallTarget> eldest) {
+            return size() > MAX_ARGUMENT_TARGETS;
+        }
+    };
+    private final HashMap<String, HashMap<String, Object>> targets = new HashMap<>();
+
+    Object[] getArguments(Env env, String languageId, String[] expressions) throws Throwable {
+        final Object[] arguments = new Object[expressions.length];
+        for (int i = 0; i < arguments.length; i++) {
+            String key = languageId + ':' + expressions[i];
+            CallTarget callTarget = argumentTargets.get(key);
+            if (callTarget == null) {
+                callTarget = env.parse(Source.newBuilder(languageId, expressions[i], ARGUMENT_EXPRESSION_NAME).build());
+                argumentTargets.put(key, callTarget);
+            }
+            arguments[i] = callTarget.call();
+        }
+        return arguments;
+    }
+
+    Object getTargetOrNull(String languageId, String identifier) {
+        HashMap<String, Object> languageTargets = targets.get(languageId);
+        return languageTargets == null ? null : languageTargets.get(identifier);
+    }
+
+    void putTarget(String languageId, String identifier, Object target) {
+        targets.computeIfAbsent(languageId, l -> new HashMap<>()).put(identifier, target);
+    }
+
+    /**
+     * Evaluates a source and invalidates all targets of its language.
+     */
+    void evaluate(Env env, Source source) throws IOException {
+        targets.remove(source.getLanguage());
+        env.parse(source).call();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.AllocationEvent;
+import com.oracle.truffle.api.instrumentation.AllocationEventFilter;
+import com.oracle.truffle.api.instrumentation.AllocationListener;
+import com.oracle.truffle.api.instrumentation.AllocationReporter;
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.api.source.SourceSection;
+
+import de.hpi.swa.liveprogramming.types.AbstractProbe.ExampleProbe;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+import de.hpi.swa.liveprogramming.types.LineProfile;
+import de.hpi.swa.liveprogramming.types.LineProfile.LineCounter;
+
+/**
+ * Records a {@link LineProfile} of each example from all statements in the files of an analysis,
+ * for a heatmap of the lines an example spent its time on or allocated memory in. The profiler
+ * stays attached while examples run one after another and only records the thread running the
+ * current example.
+ */
+final class LineProfiler implements ExecutionEventNodeFactory {
+    private static final int INITIAL_DEPTH = 64;
+
+    enum Mode {
+        OFF,
+        HITS,
+        TIME,
+    }
+
+    private final boolean isTimed;
+    private final boolean isTrackingAllocations;
+    private final boolean isTrackingStatements;
+    private EventBinding<LineProfiler> statementBinding;
+    private EventBinding<AllocationTracker> allocationBinding;
+    private volatile LineProfile currentProfile;
+    private volatile Thread exampleThread;
+    /*
+     * Counter, start, and time spent in nested statements of each statement entered by the
+     * example.
+     */
+    private LineCounter[] counters = new LineCounter[INITIAL_DEPTH];
+    private long[] startNanos = new long[INITIAL_DEPTH];
+    private long[] nestedNanos = new long[INITIAL_DEPTH];
+    private int depth;
+
+    private LineProfiler(boolean isTimed, boolean isTrackingAllocations) {
+        this.isTimed = isTimed;
+        this.isTrackingAllocations = isTrackingAllocations;
+        this.isTrackingStatements = isTimed || isTrackingAllocations;
+    }
+
+    /**
+     * Attaches a profiler to the statements of all files of a result, or returns
+     * <code>null</code> if the mode is {@link Mode#OFF} and allocations are not tracked. Tracked
+     * allocations are attributed to the innermost statement of these files the example is
+     * executing, including allocations in code the statement calls in other files.
+     */
+    static LineProfiler attachOrNull(Env env, BabylonianAnalysisResult result, Mode mode, boolean trackAllocations) {
+        if (mode == Mode.OFF && !trackAllocations) {
+            return null;
+        }
+        HashSet<URI> sourceURIs = new HashSet<>();
+        for (BabylonianAnalysisFileResult file : result.getFileResults()) {
+            sourceURIs.add(BabylonianAnalysisExtension.toSourceURI(file.getURI()));
+        }
+        SourceSectionFilter filter = SourceSectionFilter.newBuilder().tagIs(StandardTags.StatementTag.class).includeInternal(false).sourceIs(s -> sourceURIs.contains(s.getURI())).build();
+        LineProfiler profiler = new LineProfiler(mode == Mode.TIME, trackAllocations);
+        profiler.statementBinding = env.getInstrumenter().attachExecutionEventFactory(filter, profiler);
+        if (trackAllocations) {
+            profiler.allocationBinding = env.getInstrumenter().attachAllocationListener(AllocationEventFilter.ANY, profiler.new AllocationTracker());
+        }
+        return profiler;
+    }
+
+    void dispose() {
+        statementBinding.dispose();
+        if (allocationBinding != null) {
+            allocationBinding.dispose();
+        }
+    }
+
+    /**
+     * Starts a new profile of an example. Must be called by the thread running the example.
+     */
+    void startExample(ExampleProbe example) {
+        LineProfile profile = new LineProfile(isTimed, isTrackingAllocations);
+        example.setLineProfile(profile);
+        depth = 0;
+        exampleThread = Thread.currentThread();
+        currentProfile = profile;
+    }
+
+    void stopExample() {
+        exampleThread = null;
+        currentProfile = null;
+    }
+
+    private LineProfile getActiveProfileOrNull() {
+        return exampleThread == Thread.currentThread() ? currentProfile : null;
+    }
+
+    private void enter(LineCounter counter) {
+        if (depth + 1 == startNanos.length) {
+            CompilerDirectives.transferToInterpreter();
+            growStack();
+        }
+        depth++;
+        counters[depth] = counter;
+        if (isTimed) {
+            startNanos[depth] = System.nanoTime();
+            nestedNanos[depth] = 0;
+        }
+    }
+
+    private void exit(LineCounter counter) {
+        if (depth == 0) {
+            return; // Statement was entered before the example started
+        }
+        if (isTimed) {
+            long nanos = System.nanoTime() - startNanos[depth];
+            counter.addSelfNanos(nanos - nestedNanos[depth]);
+            nestedNanos[depth - 1] += nanos;
+        }
+        counters[depth] = null;
+        depth--;
+    }
+
+    @TruffleBoundary
+    private void growStack() {
+        counters = Arrays.copyOf(counters, counters.length * 2);
+        startNanos = Arrays.copyOf(startNanos, startNanos.length * 2);
+        nestedNanos = Arrays.copyOf(nestedNanos, nestedNanos.length * 2);
+    }
+
+    /**
+     * Counts the objects allocated by the current example and their sizes, as far as languages
+     * report them. Objects that grow are counted once, with their growth added to their size.
+     * Sizes that are unknown are not counted.
+     */
+    private final class AllocationTracker implements AllocationListener {
+        @Override
+        public void onEnter(AllocationEvent event) {
+        }
+
+        @Override
+        @TruffleBoundary
+        public void onReturnValue(AllocationEvent event) {
+            LineProfile profile = getActiveProfileOrNull();
+            if (profile == null) {
+                return;
+            }
+            long oldSize = event.getOldSize();
+            long newSize = event.getNewSize();
+            long bytes = oldSize == AllocationReporter.SIZE_UNKNOWN || newSize == AllocationReporter.SIZE_UNKNOWN ? 0 : newSize - oldSize;
+            profile.addAllocation(depth == 0 ? null : counters[depth], oldSize == 0, bytes);
+        }
+    }
+
+    public ExecutionEventNode create(EventContext context) {
+        SourceSection section = context.getInstrumentedSourceSection();
+        if (section == null || !section.isAvailable()) {
+            return null;
+        }
+        return new LineProfilerNode(this, BabylonianAnalysisExtension.toVSCodeURI(section.getSource().getURI()), section.getStartLine());
+    }
+
+    private static final class LineProfilerNode extends ExecutionEventNode {
+        private final LineProfiler profiler;
+        private final URI uri;
+        private final int lineNumber;
+        /* Counter of the line in the profile of the current example, only used by its thread. */
+        private LineProfile cachedProfile;
+        private LineCounter cachedCounter;
+
+        private LineProfilerNode(LineProfiler profiler, URI uri, int lineNumber) {
+            this.profiler = profiler;
+            this.uri = uri;
+            this.lineNumber = lineNumber;
+        }
+
+        @Override
+        protected void onEnter(VirtualFrame frame) {
+            LineProfile profile = profiler.getActiveProfileOrNull();
+            if (profile != null) {
+                LineCounter counter = getCounter(profile);
+                counter.hit();
+                if (profiler.isTrackingStatements) {
+                    profiler.enter(counter);
+                }
+            }
+        }
+
+        @Override
+        protected void onReturnValue(VirtualFrame frame, Object result) {
+            exit();
+        }
+
+        @Override
+        protected void onReturnExceptional(VirtualFrame frame, Throwable exception) {
+            exit();
+        }
+
+        private void exit() {
+            if (profiler.isTrackingStatements) {
+                LineProfile profile = profiler.getActiveProfileOrNull();
+                if (profile != null) {
+                    profiler.exit(getCounter(profile));
+                }
+            }
+        }
+
+        private LineCounter getCounter(LineProfile profile) {
+            if (profile != cachedProfile) {
+                updateCounter(profile);
+            }
+            return cachedCounter;
+        }
+
+        @TruffleBoundary
+        private void updateCounter(LineProfile profile) {
+            cachedCounter = profile.getCounter(uri, lineNumber);
+            cachedProfile = profile;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Remembers which exemplified sources have been evaluated in an engine, so that unchanged
+ * modules are neither parsed nor executed again before examples run. Modules of a language are
+ * evaluated again as soon as any open source of that language changed, because they may depend
+ * on each other. The fingerprints are computed once per analysis and shared by all engines, each
+ * of which owns its own cache.
+ */
+final class ModuleEvaluationCache {
+    private final HashMap<String, String> evaluatedFingerprints = new HashMap<>();
+
+    /**
+     * Computes the fingerprint of every language of the exemplified sources from the contents
+     * of all open sources of that language. Incrementing <code>resetCount</code> changes all
+     * fingerprints, which forces a fresh evaluation of all modules.
+     */
+    static Map<String, String> computeFingerprints(Collection<Source> exemplifiedSources, Collection<Source> openSources, long resetCount) {
+        HashMap<String, String> fingerprints = new HashMap<>();
+        for (Source exemplifiedSource : exemplifiedSources) {
+            String languageId = exemplifiedSource.getLanguage();
+            if (fingerprints.containsKey(languageId)) {
+                continue;
+            }
+            Source[] dependencies = openSources.stream().filter(s -> languageId.equals(s.getLanguage())).toArray(Source[]::new);
+            Arrays.sort(dependencies, Comparator.comparing(s -> Objects.toString(s.getURI())));
+            ContentHash hash = new ContentHash().update(Long.toString(resetCount));
+            for (Source dependency : dependencies) {
+                hash.update(Objects.toString(dependency.getURI())).update(dependency.getCharacters().toString());
+            }
+            fingerprints.put(languageId, hash.toHexString());
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Evaluates all exemplified sources of languages whose fingerprint differs from the one they
+     * were last evaluated with. Sources are evaluated unconditionally if the fingerprints are
+     * <code>null</code>. A language stays invalid if one of its sources fails to evaluate.
+     */
+    void evaluate(Env env, ExampleTargetCache targetCache, Collection<Source> exemplifiedSources, Map<String, String> fingerprints) throws IOException {
+        HashMap<String, Boolean> needsEvaluation = new HashMap<>();
+        for (Source source : exemplifiedSources) {
+            String languageId = source.getLanguage();
+            if (needsEvaluation.computeIfAbsent(languageId, l -> !isUpToDate(l, fingerprints))) {
+                evaluatedFingerprints.remove(languageId);
+                targetCache.evaluate(env, source);
+            }
+        }
+        if (fingerprints != null) {
+            evaluatedFingerprints.putAll(fingerprints);
+        }
+    }
+
+    private boolean isUpToDate(String languageId, Map<String, String> fingerprints) {
+        String fingerprint = fingerprints == null ? null : fingerprints.get(languageId);
+        return fingerprint != null && fingerprint.equals(evaluatedFingerprints.get(languageId));
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.EnvironmentAccess;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotAccess;
+import org.graalvm.tools.api.lsp.LSPExtension;
+
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.api.source.Source;
+
+import de.hpi.swa.liveprogramming.AnalysisMetrics.Phase;
+import de.hpi.swa.liveprogramming.AnalysisMetrics.PhaseTimer;
+import de.hpi.swa.liveprogramming.BabylonianAnalysisExtension.BabylonianAnalysisCommand;
+import de.hpi.swa.liveprogramming.BabylonianAnalysisExtension.BabylonianAnalysisCommand.BabylonianEventNodeFactory;
+import de.hpi.swa.liveprogramming.types.AbstractProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.ExampleProbe;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+import de.hpi.swa.liveprogramming.types.ObjectInformation;
+
+/**
+ * Runs examples in parallel on a pool of worker threads. Truffle instruments cannot create inner
+ * contexts, so every worker owns a separate polyglot engine and context together with its own
+ * instance of the {@link BabylonianAnalysisExtension}. Bindings attached by a worker therefore only
+ * observe the examples of that worker. Worker engines get the options of this instrument and the
+ * output streams of the engine of the language server, and worker contexts only get the permissions
+ * configured with {@link BabylonianAnalysisExtension#WORKER_PERMISSIONS}, as the permissions of the
+ * context of the language server are not visible to instruments. Each example records into a
+ * separate result, whose observations are merged into the result of the analysis on the calling
+ * thread. Examples are stopped at their next statement once they exceed their budget or the
+ * analysis is cancelled (see {@link ExampleCanceller}). The context of a worker whose example still
+ * runs after a grace period (e.g. in a host call) is cancelled, and the worker is replaced.
+ */
+final class ParallelExampleRunner {
+    private static final String WORKER_NAME = "LS Babylonian Example Worker";
+    private static final long WATCHDOG_INTERVAL_MILLIS = 100;
+    private static final String CANCELLED_DETAILS_ERROR = "Example was cancelled before details were materialized.";
+    /* Time an example may overrun its budget before its worker is cancelled. */
+    private static final long CANCEL_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final List<String> PERMISSIONS = Arrays.asList("io", "threads", "processes", "native", "environment", "hostAccess", "hostClassLookup", "polyglot");
+
+    private final ExecutorService executor;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(this::createWorker);
+    private final List<Worker> allWorkers = new ArrayList<>();
+    private final Env env;
+    private final Map<String, String> engineOptions;
+    private final Set<String> permissions;
+    private final ScheduledExecutorService timer;
+    private final boolean isThreadScoped;
+    private final LineProfiler.Mode lineProfiling;
+    private final boolean trackAllocations;
+    private long generation;
+
+    ParallelExampleRunner(int parallelism, Env env, Map<String, String> engineOptions, String permissions, ScheduledExecutorService timer, boolean isThreadScoped, LineProfiler.Mode lineProfiling,
+                    boolean trackAllocations) {
+        this.env = env;
+        this.engineOptions = engineOptions;
+        this.permissions = parsePermissions(permissions);
+        this.timer = timer;
+        this.isThreadScoped = isThreadScoped;
+        this.lineProfiling = lineProfiling;
+        this.trackAllocations = trackAllocations;
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, WORKER_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs all examples to run and merges their observations into the result. All workers
+     * evaluate the exemplified sources that changed since they last evaluated them (see
+     * {@link ModuleEvaluationCache}) before running their first example of this analysis. Returns
+     * early without waiting for running examples if the analysis is cancelled.
+     */
+    void run(BabylonianAnalysisResult result, Collection<ExampleProbe> examplesToRun, Collection<Source> exemplifiedSources, Map<String, String> moduleFingerprints,
+                    Supplier<BabylonianAnalysisResult> resultFactory, ExampleBudget budget, AnalysisMetrics metrics, boolean recordCoverage) {
+        long currentGeneration = ++generation;
+        CompletionService<WorkerResult> completionService = new ExecutorCompletionService<>(executor);
+        ArrayList<Future<WorkerResult>> futures = new ArrayList<>();
+        for (BabylonianAnalysisFileResult file : result.getFileResults()) {
+            int index = 0;
+            for (ExampleProbe example : file.getExamples()) {
+                if (examplesToRun.contains(example)) {
+                    URI uri = file.getURI();
+                    int exampleIndex = index;
+                    futures.add(completionService.submit(() -> runOnWorker(currentGeneration, exemplifiedSources, moduleFingerprints, resultFactory, uri, exampleIndex, example, budget, metrics,
+                                    recordCoverage)));
+                }
+                index++;
+            }
+        }
+        int remainingTasks = futures.size();
+        while (remainingTasks > 0) {
+            if (budget.isCancelled()) {
+                for (Future<WorkerResult> future : futures) {
+                    future.cancel(false); // Running examples stop at their next statement
+                }
+                return;
+            }
+            try {
+                Future<WorkerResult> future = completionService.poll(WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    cancelOverdueWorkers();
+                    continue;
+                }
+                remainingTasks--;
+                WorkerResult workerResult = future.get();
+                result.mergeExample(workerResult.result, workerResult.workerExample, workerResult.example);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                BabylonianAnalysisExtension.printError(e.getMessage());
+            }
+        }
+    }
+
+    private WorkerResult runOnWorker(long currentGeneration, Collection<Source> exemplifiedSources, Map<String, String> moduleFingerprints, Supplier<BabylonianAnalysisResult> resultFactory,
+                    URI uri, int exampleIndex, ExampleProbe example, ExampleBudget budget, AnalysisMetrics metrics, boolean recordCoverage) {
+        Worker worker = workers.get();
+        try {
+            return worker.runExample(currentGeneration, exemplifiedSources, moduleFingerprints, resultFactory, uri, exampleIndex, example, budget, metrics, recordCoverage);
+        } finally {
+            if (worker.isCancelled) {
+                workers.remove();
+                synchronized (allWorkers) {
+                    allWorkers.remove(worker);
+                }
+                worker.close();
+            }
+        }
+    }
+
+    private void cancelOverdueWorkers() {
+        ArrayList<Worker> currentWorkers;
+        synchronized (allWorkers) {
+            currentWorkers = new ArrayList<>(allWorkers);
+        }
+        long now = System.nanoTime();
+        for (Worker worker : currentWorkers) {
+            worker.cancelIfOverdue(now);
+        }
+    }
+
+    void close() {
+        executor.shutdownNow();
+        synchronized (allWorkers) {
+            for (Worker worker : allWorkers) {
+                worker.close();
+            }
+            allWorkers.clear();
+        }
+    }
+
+    private static Set<String> parsePermissions(String permissions) {
+        HashSet<String> parsed = new HashSet<>();
+        for (String permission : permissions.split(",")) {
+            String trimmed = permission.trim();
+            if (PERMISSIONS.contains(trimmed)) {
+                parsed.add(trimmed);
+            } else if (!trimmed.isEmpty()) {
+                BabylonianAnalysisExtension.printError("Unknown worker permission '" + trimmed + "', expected one of: " + String.join(", ", PERMISSIONS));
+            }
+        }
+        return parsed;
+    }
+
+    private Worker createWorker() {
+        Engine engine = Engine.newBuilder().options(engineOptions).allowExperimentalOptions(true).out(env.out()).err(env.err()).build();
+        Context.Builder contextBuilder = Context.newBuilder().engine(engine).allowIO(permissions.contains("io")).allowCreateThread(permissions.contains("threads")).allowCreateProcess(
+                        permissions.contains("processes")).allowNativeAccess(permissions.contains("native"));
+        if (permissions.contains("environment")) {
+            contextBuilder.allowEnvironmentAccess(EnvironmentAccess.INHERIT);
+        }
+        if (permissions.contains("hostAccess")) {
+            contextBuilder.allowHostAccess(HostAccess.ALL);
+        }
+        if (permissions.contains("hostClassLookup")) {
+            contextBuilder.allowHostClassLookup(className -> true);
+        }
+        if (permissions.contains("polyglot")) {
+            contextBuilder.allowPolyglotAccess(PolyglotAccess.ALL);
+        }
+        Worker worker = new Worker(engine, contextBuilder.build(), timer, isThreadScoped, lineProfiling, trackAllocations);
+        synchronized (allWorkers) {
+            allWorkers.add(worker);
+        }
+        return worker;
+    }
+
+    private static final class Worker {
+        private final Engine engine;
+        private final Context context;
+        private final Env env;
+        private final ExampleTargetCache targetCache = new ExampleTargetCache();
+        private final ModuleEvaluationCache moduleCache = new ModuleEvaluationCache();
+        private final ScheduledExecutorService timer;
+        private final boolean isThreadScoped;
+        private final LineProfiler.Mode lineProfiling;
+        private final boolean trackAllocations;
+        private long evaluatedGeneration;
+        private String evaluationError;
+        /* Deadline after which the running example is cancelled, 0 while idle. */
+        private long cancelDeadlineNanos;
+        private volatile boolean isCancelled;
+
+        private Worker(Engine engine, Context context, ScheduledExecutorService timer, boolean isThreadScoped, LineProfiler.Mode lineProfiling, boolean trackAllocations) {
+            this.engine = engine;
+            this.context = context;
+            this.timer = timer;
+            this.isThreadScoped = isThreadScoped;
+            this.lineProfiling = lineProfiling;
+            this.trackAllocations = trackAllocations;
+            BabylonianAnalysisExtension instrument = (BabylonianAnalysisExtension) engine.getInstruments().get(BabylonianAnalysisExtension.ID).lookup(LSPExtension.class);
+            env = instrument.getEnv();
+        }
+
+        private WorkerResult runExample(long generation, Collection<Source> exemplifiedSources, Map<String, String> moduleFingerprints, Supplier<BabylonianAnalysisResult> resultFactory, URI uri,
+                        int exampleIndex, ExampleProbe example, ExampleBudget budget, AnalysisMetrics metrics, boolean recordCoverage) {
+            BabylonianAnalysisResult workerResult = resultFactory.get();
+            ExampleProbe workerExample = null;
+            int index = 0;
+            for (ExampleProbe candidate : workerResult.getFileOrNull(uri).getExamples()) {
+                if (index++ == exampleIndex) {
+                    workerExample = candidate;
+                    break;
+                }
+            }
+            assert workerExample != null && workerExample.getExampleName().equals(example.getExampleName());
+            context.enter();
+            try {
+                if (evaluatedGeneration != generation) {
+                    evaluatedGeneration = generation;
+                    evaluationError = null;
+                    PhaseTimer moduleEvaluation = metrics.startPhase(Phase.MODULE_EVALUATION);
+                    try {
+                        moduleCache.evaluate(env, targetCache, exemplifiedSources, moduleFingerprints);
+                    } catch (Throwable e) {
+                        evaluationError = e.getMessage();
+                    } finally {
+                        moduleEvaluation.stop();
+                    }
+                }
+                if (evaluationError != null) {
+                    workerExample.addObservedValue(ObjectInformation.createError("<unknown>", evaluationError, evaluationError));
+                } else {
+                    synchronized (this) {
+                        // The budget of the example starts once modules are evaluated
+                        cancelDeadlineNanos = budget.getDeadlineNanos() + CANCEL_GRACE_NANOS;
+                    }
+                    EventBinding<BabylonianEventNodeFactory> probes = BabylonianAnalysisCommand.attachProbes(env, workerResult, isThreadScoped);
+                    LineProfiler profiler = LineProfiler.attachOrNull(env, workerResult, lineProfiling, trackAllocations);
+                    ExampleCanceller canceller = ExampleCanceller.attach(env, timer);
+                    try {
+                        BabylonianAnalysisCommand.runExampleInstrumented(env, targetCache, probes.getElement(), profiler, canceller, workerExample, budget, metrics, recordCoverage);
+                    } finally {
+                        canceller.dispose();
+                        probes.dispose();
+                        if (profiler != null) {
+                            profiler.dispose();
+                        }
+                    }
+                }
+                if (isCancelled) {
+                    forEachObservedValue(workerResult, workerExample.getExampleName(), value -> value.discardDetails(CANCELLED_DETAILS_ERROR));
+                } else {
+                    forEachObservedValue(workerResult, workerExample.getExampleName(), ObjectInformation::materialize);
+                }
+            } finally {
+                context.leave(); // Before synchronizing, as cancelling waits for the worker to leave
+                synchronized (this) {
+                    cancelDeadlineNanos = 0;
+                }
+            }
+            return new WorkerResult(workerResult, workerExample, example);
+        }
+
+        /**
+         * Cancels the example running on this worker if it overran its deadline. The worker
+         * cannot be used afterwards.
+         */
+        private synchronized void cancelIfOverdue(long now) {
+            if (cancelDeadlineNanos == 0 || now - cancelDeadlineNanos <= 0 || isCancelled) {
+                return;
+            }
+            isCancelled = true;
+            try {
+                context.close(true);
+            } catch (IllegalStateException e) {
+                BabylonianAnalysisExtension.printError(e.getMessage());
+            }
+        }
+
+        /**
+         * Values of a worker cannot be inspected from other contexts, so their details are
+         * materialized (or discarded if the context was cancelled) before they are merged.
+         */
+        private static void forEachObservedValue(BabylonianAnalysisResult workerResult, String exampleName, Consumer<ObjectInformation> action) {
+            for (BabylonianAnalysisFileResult file : workerResult.getFileResults()) {
+                for (ExampleProbe example : file.getExamples()) {
+                    forEachObservedValue(example.getObservedValuesOrNull(exampleName), action);
+                }
+                for (AbstractProbe probe : file.getProbes().values()) {
+                    forEachObservedValue(probe.getObservedValuesOrNull(exampleName), action);
+                }
+            }
+        }
+
+        private static void forEachObservedValue(List<ObjectInformation> values, Consumer<ObjectInformation> action) {
+            if (values != null) {
+                for (ObjectInformation value : values) {
+                    action.accept(value);
+                }
+            }
+        }
+
+        private void close() {
+            context.close(true);
+            engine.close();
+        }
+    }
+
+    private static final class WorkerResult {
+        private final BabylonianAnalysisResult result;
+        private final ExampleProbe workerExample;
+        private final ExampleProbe example;
+
+        private WorkerResult(BabylonianAnalysisResult result, ExampleProbe workerExample, ExampleProbe example) {
+            this.result = result;
+            this.workerExample = workerExample;
+            this.example = example;
+        }
+    }
+}
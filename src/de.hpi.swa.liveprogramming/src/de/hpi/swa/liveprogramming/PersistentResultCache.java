@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.tools.utils.json.JSONException;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult;
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+import de.hpi.swa.liveprogramming.types.BinaryResultCodec;
+
+/**
+ * Keeps the results of the last complete analysis of each file in a local cache file, so that
+ * they can be shown right away after the language server was restarted, until the examples ran
+ * again. A result is only used if the hash and language of its source still match. The cache
+ * file is encoded with the {@link BinaryResultCodec}, memory-mapped and read on first use, and
+ * written in the background after each complete analysis.
+ */
+final class PersistentResultCache {
+    private static final int MAGIC = 0x42414252; // "BABR"
+    private static final int VERSION = 3;
+    private static final int MAX_ENTRIES = 256;
+
+    private final Path file;
+    private LinkedHashMap<URI, JSONObject> entries;
+    private boolean isDirty;
+
+    PersistentResultCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns a copy of the cached JSON of the file result of a source, which callers may modify,
+     * or <code>null</code> if there is none for the current content of the source.
+     */
+    synchronized JSONObject getFileJSONOrNull(URI uri, Source source) {
+        JSONObject entry = getEntries().get(uri);
+        if (entry == null || !source.getLanguage().equals(entry.optString("languageId")) || !ContentHash.of(source).equals(entry.optString("sourceHash"))) {
+            return null;
+        }
+        return new JSONObject(entry.getJSONObject("file").toString());
+    }
+
+    /**
+     * Replaces the cached results of all files of a complete analysis.
+     */
+    synchronized void update(Map<URI, Source> sources, BabylonianAnalysisResult result) {
+        LinkedHashMap<URI, JSONObject> currentEntries = getEntries();
+        for (BabylonianAnalysisFileResult fileResult : result.getFileResults()) {
+            Source source = sources.get(fileResult.getURI());
+            if (source == null) {
+                continue;
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("languageId", source.getLanguage());
+            entry.put("sourceHash", ContentHash.of(source));
+            entry.put("file", fileResult.toJSON());
+            currentEntries.remove(fileResult.getURI()); // Move to the end
+            currentEntries.put(fileResult.getURI(), entry);
+        }
+        Iterator<URI> iterator = currentEntries.keySet().iterator();
+        while (currentEntries.size() > MAX_ENTRIES) {
+            iterator.next();
+            iterator.remove();
+        }
+        isDirty = true;
+    }
+
+    /**
+     * Writes the cache file if it changed since it was last written.
+     */
+    synchronized void save() {
+        if (!isDirty) {
+            return;
+        }
+        isDirty = false;
+        BinaryResultCodec.Writer writer = new BinaryResultCodec.Writer();
+        writer.writeUnsigned(MAGIC);
+        writer.writeUnsigned(VERSION);
+        writer.writeUnsigned(entries.size());
+        for (JSONObject entry : entries.values()) {
+            writer.writeString(entry.getString("languageId"));
+            writer.writeString(entry.getString("sourceHash"));
+            writer.writeFile(entry.getJSONObject("file"));
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(temporaryFile, writer.toByteArray());
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            BabylonianAnalysisExtension.printError("Failed to write " + file + ": " + e.getMessage());
+        }
+    }
+
+    private LinkedHashMap<URI, JSONObject> getEntries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<>();
+            if (Files.isRegularFile(file)) {
+                try {
+                    load();
+                } catch (IOException | JSONException | IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException | ArithmeticException e) {
+                    entries.clear();
+                    BabylonianAnalysisExtension.printError("Failed to read " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void load() throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        BinaryResultCodec.Reader reader = new BinaryResultCodec.Reader(buffer);
+        if (!reader.hasRemaining() || reader.readUnsigned() != MAGIC || reader.readUnsigned() != VERSION) {
+            return; // Written by another version, overwritten by the next analysis
+        }
+        long numberOfEntries = reader.readUnsigned();
+        for (long i = 0; i < numberOfEntries; i++) {
+            JSONObject entry = new JSONObject();
+            entry.put("languageId", reader.readString());
+            entry.put("sourceHash", reader.readString());
+            JSONObject fileJSON = reader.readFile();
+            entry.put("file", fileJSON);
+            entries.put(URI.create(fileJSON.getString("uri")), entry);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Line-based difference between two versions of a source, reduced to a single changed hunk by
+ * skipping the longest common prefix and suffix of lines. Line numbers are one-based.
+ */
+final class SourceDiff {
+    private final Source oldSource;
+    private final Source newSource;
+    private final int firstChangedLine;
+    private final int oldLastChangedLine;
+    private final int newLastChangedLine;
+
+    private SourceDiff(Source oldSource, Source newSource, int firstChangedLine, int oldLastChangedLine, int newLastChangedLine) {
+        this.oldSource = oldSource;
+        this.newSource = newSource;
+        this.firstChangedLine = firstChangedLine;
+        this.oldLastChangedLine = oldLastChangedLine;
+        this.newLastChangedLine = newLastChangedLine;
+    }
+
+    /**
+     * Returns <code>null</code> if both sources have identical characters.
+     */
+    static SourceDiff computeOrNull(Source oldSource, Source newSource) {
+        CharSequence oldCharacters = oldSource.getCharacters();
+        CharSequence newCharacters = newSource.getCharacters();
+        if (oldCharacters.length() == newCharacters.length() && contentEquals(oldCharacters, 0, newCharacters, 0, oldCharacters.length())) {
+            return null;
+        }
+        int oldLineCount = oldSource.getLineCount();
+        int newLineCount = newSource.getLineCount();
+        int commonLineCount = Math.min(oldLineCount, newLineCount);
+        int prefix = 0;
+        while (prefix < commonLineCount && linesEqual(oldSource, prefix + 1, newSource, prefix + 1)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < commonLineCount - prefix && linesEqual(oldSource, oldLineCount - suffix, newSource, newLineCount - suffix)) {
+            suffix++;
+        }
+        return new SourceDiff(oldSource, newSource, prefix + 1, oldLineCount - suffix, newLineCount - suffix);
+    }
+
+    private static boolean linesEqual(Source oldSource, int oldLine, Source newSource, int newLine) {
+        int length = oldSource.getLineLength(oldLine);
+        return length == newSource.getLineLength(newLine) &&
+                        contentEquals(oldSource.getCharacters(), oldSource.getLineStartOffset(oldLine), newSource.getCharacters(), newSource.getLineStartOffset(newLine), length);
+    }
+
+    private static boolean contentEquals(CharSequence a, int aOffset, CharSequence b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(aOffset + i) != b.charAt(bOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Source getOldSource() {
+        return oldSource;
+    }
+
+    Source getNewSource() {
+        return newSource;
+    }
+
+    int getFirstChangedLine() {
+        return firstChangedLine;
+    }
+
+    int getOldLastChangedLine() {
+        return oldLastChangedLine;
+    }
+
+    int getNewLastChangedLine() {
+        return newLastChangedLine;
+    }
+
+    /**
+     * Maps a line of the old source to the corresponding line of the new source, or returns
+     * <code>-1</code> if the line was changed.
+     */
+    int mapLine(int oldLine) {
+        if (oldLine < firstChangedLine) {
+            return oldLine;
+        } else if (oldLine > oldLastChangedLine) {
+            return oldLine + (newLastChangedLine - oldLastChangedLine);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks whether the changed hunk overlaps the given range of old lines. A pure insertion
+     * overlaps a range if it was inserted between two of its lines.
+     */
+    boolean intersects(int oldStartLine, int oldEndLine) {
+        if (oldLastChangedLine < firstChangedLine) {
+            return oldStartLine < firstChangedLine && firstChangedLine <= oldEndLine;
+        } else {
+            return oldStartLine <= oldLastChangedLine && firstChangedLine <= oldEndLine;
+        }
+    }
+
+    /**
+     * Checks whether the changed hunk lies completely within the given range of old lines.
+     */
+    boolean isContainedIn(int oldStartLine, int oldEndLine) {
+        if (oldLastChangedLine < firstChangedLine) {
+            return oldStartLine < firstChangedLine && firstChangedLine <= oldEndLine;
+        } else {
+            return oldStartLine <= firstChangedLine && oldLastChangedLine <= oldEndLine;
+        }
+    }
+
+    /**
+     * Checks whether every changed line, in the old and in the new source, contains the given
+     * string.
+     */
+    boolean allChangedLinesContain(String string) {
+        return allLinesContain(oldSource, firstChangedLine, oldLastChangedLine, string) && allLinesContain(newSource, firstChangedLine, newLastChangedLine, string);
+    }
+
+    private static boolean allLinesContain(Source source, int startLine, int endLine, String string) {
+        for (int lineNumber = startLine; lineNumber <= endLine; lineNumber++) {
+            if (!source.getCharacters(lineNumber).toString().contains(string)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
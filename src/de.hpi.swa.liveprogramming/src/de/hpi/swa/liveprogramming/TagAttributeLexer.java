@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming;
+
+/**
+ * Streaming lexer for the attributes of annotation tags such as
+ * <code>&lt;Example :name="foo" a="1" /&gt;</code>. It works directly on the characters of a
+ * source and only records offsets, attribute names and values are materialized on request. A
+ * lexer is not shared and holds no global state, so annotations can be scanned concurrently.
+ */
+final class TagAttributeLexer {
+    private final CharSequence characters;
+    private final int endOffset;
+    private int offset;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+    private boolean isTerminated;
+    private String errorMessage;
+    private int errorOffset = -1;
+
+    /**
+     * Creates a lexer for the tag starting with '&lt;' at tagOffset, which must end before
+     * endOffset (usually the end of the line).
+     */
+    TagAttributeLexer(CharSequence characters, int tagOffset, int endOffset) {
+        assert characters.charAt(tagOffset) == '<';
+        this.characters = characters;
+        this.endOffset = endOffset;
+        offset = tagOffset + 1;
+        while (offset < endOffset && isNameCharacter(characters.charAt(offset))) {
+            offset++; // Skip tag name
+        }
+    }
+
+    /**
+     * Advances to the next attribute. Returns <code>false</code> at the end of the tag or if the
+     * tag is malformed, in which case {@link #getErrorMessage()} is set.
+     */
+    boolean next() {
+        if (isTerminated || errorMessage != null) {
+            return false;
+        }
+        skipWhitespace();
+        if (offset >= endOffset) {
+            return reportError(offset, "Missing '>' at end of tag");
+        }
+        char c = characters.charAt(offset);
+        if (c == '>') {
+            offset++;
+            isTerminated = true;
+            return false;
+        } else if (c == '/') {
+            if (offset + 1 < endOffset && characters.charAt(offset + 1) == '>') {
+                offset += 2;
+                isTerminated = true;
+                return false;
+            }
+            return reportError(offset + 1, "Expected '>' after '/'");
+        } else if (!isNameCharacter(c) || c == '-' || c == '.' || Character.isDigit(c)) {
+            return reportError(offset, "Unexpected character '" + c + "' in tag");
+        }
+        nameStart = offset;
+        while (offset < endOffset && isNameCharacter(characters.charAt(offset))) {
+            offset++;
+        }
+        nameEnd = offset;
+        skipWhitespace();
+        if (offset >= endOffset || characters.charAt(offset) != '=') {
+            return reportError(offset, "Expected '=' after attribute '" + getName() + "'");
+        }
+        offset++;
+        skipWhitespace();
+        char quote = offset < endOffset ? characters.charAt(offset) : 0;
+        if (quote != '"' && quote != '\'') {
+            return reportError(offset, "Expected quoted value for attribute '" + getName() + "'");
+        }
+        valueStart = ++offset;
+        while (offset < endOffset && characters.charAt(offset) != quote) {
+            offset++;
+        }
+        if (offset >= endOffset) {
+            return reportError(valueStart - 1, "Unterminated value of attribute '" + getName() + "'");
+        }
+        valueEnd = offset++;
+        return true;
+    }
+
+    boolean isTerminated() {
+        return isTerminated;
+    }
+
+    String getErrorMessage() {
+        return errorMessage;
+    }
+
+    int getErrorOffset() {
+        return errorOffset;
+    }
+
+    int getNameOffset() {
+        return nameStart;
+    }
+
+    String getName() {
+        return characters.subSequence(nameStart, nameEnd).toString();
+    }
+
+    /**
+     * Returns the value of the current attribute with predefined XML entities and character
+     * references decoded.
+     */
+    String getValue() {
+        int ampersand = -1;
+        for (int i = valueStart; i < valueEnd; i++) {
+            if (characters.charAt(i) == '&') {
+                ampersand = i;
+                break;
+            }
+        }
+        if (ampersand < 0) {
+            return characters.subSequence(valueStart, valueEnd).toString();
+        }
+        StringBuilder builder = new StringBuilder(valueEnd - valueStart);
+        builder.append(characters, valueStart, ampersand);
+        int i = ampersand;
+        while (i < valueEnd) {
+            char c = characters.charAt(i);
+            if (c == '&') {
+                int semicolon = i + 1;
+                while (semicolon < valueEnd && characters.charAt(semicolon) != ';' && characters.charAt(semicolon) != '&') {
+                    semicolon++;
+                }
+                if (semicolon < valueEnd && characters.charAt(semicolon) == ';') {
+                    int decoded = decodeEntity(characters.subSequence(i + 1, semicolon).toString());
+                    if (decoded >= 0) {
+                        builder.appendCodePoint(decoded);
+                        i = semicolon + 1;
+                        continue;
+                    }
+                }
+            }
+            builder.append(c); // Keep unknown entities as they are
+            i++;
+        }
+        return builder.toString();
+    }
+
+    private static int decodeEntity(String entity) {
+        switch (entity) {
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "amp":
+                return '&';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            default:
+                int codePoint = -1;
+                try {
+                    if (entity.startsWith("#x")) {
+                        codePoint = Integer.parseInt(entity.substring(2), 16);
+                    } else if (entity.startsWith("#")) {
+                        codePoint = Integer.parseInt(entity.substring(1));
+                    }
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+                return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (offset < endOffset && Character.isWhitespace(characters.charAt(offset))) {
+            offset++;
+        }
+    }
+
+    /**
+     * Marks the tag as malformed, e.g. for semantic errors detected by the caller.
+     */
+    boolean reportError(int position, String message) {
+        errorOffset = Math.min(position, endOffset);
+        errorMessage = message;
+        return false;
+    }
+
+    private static boolean isNameCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == ':' || c == '_' || c == '-' || c == '.';
+    }
+}
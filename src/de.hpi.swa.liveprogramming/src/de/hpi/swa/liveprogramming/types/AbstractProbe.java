@@ -5,11 +5,16 @@
  */
 package de.hpi.swa.liveprogramming.types;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import com.oracle.truffle.api.CompilerDirectives;
@@ -28,7 +33,10 @@ public abstract class AbstractProbe {
 
     private final String exampleNameOrNull;
     private final int lineNumber;
-    private final HashMap<String, ArrayList<ObjectInformation>> example2ObservedValues = new HashMap<>();
+    private final ConcurrentHashMap<String, ObservationLog> example2ObservedValues = new ConcurrentHashMap<>();
+    private ObservationLimit observationLimit = ObservationLimit.UNLIMITED;
+    private ObservationPool observationPool;
+    private volatile PrimitiveObservations primitiveObservations;
 
     public AbstractProbe(String exampleNameOrNull, int lineNumber) {
         this.exampleNameOrNull = exampleNameOrNull;
@@ -37,12 +45,90 @@ public abstract class AbstractProbe {
 
     public final void apply(ExampleProbe example, SourceSection section, Object result, Function<String, Object> inlineEvaluator) {
         if (exampleNameOrNull == null || exampleNameOrNull.equals(example.getExampleName())) {
-            example2ObservedValues.computeIfAbsent(example.getExampleName(), n -> new ArrayList<>()).add(getObjectInformation(example, section, result, inlineEvaluator));
+            ObservationLog log = getOrCreateLog(example.getExampleName());
+            if (!observesReturnValue() || !tryAddPrimitive(log, section, result)) {
+                log.add(getObjectInformation(example, section, result, inlineEvaluator));
+            }
         }
     }
 
+    /**
+     * Returns <code>true</code> if the probe observes the value returned by its source section,
+     * which allows primitive values to be stored unboxed.
+     */
+    protected boolean observesReturnValue() {
+        return false;
+    }
+
+    /**
+     * Returns the expression the probe evaluates in the frame of its source section, or
+     * <code>null</code> if it only observes the returned value. The inline evaluator passed to
+     * {@link #apply} only needs to support this expression.
+     */
+    public String getInlineExpressionOrNull() {
+        return null;
+    }
+
+    private boolean tryAddPrimitive(ObservationLog log, SourceSection section, Object value) {
+        PrimitiveObservation.Kind kind = PrimitiveObservation.kindOrNull(value);
+        if (kind == null) {
+            return false;
+        }
+        PrimitiveObservations observations = primitiveObservations;
+        if (observations == null || !section.equals(observations.section)) {
+            observations = new PrimitiveObservations(section);
+            primitiveObservations = observations;
+        }
+        PrimitiveObservation observation = observations.kinds[kind.ordinal()];
+        if (observation == null) {
+            observation = new PrimitiveObservation(section.getCharacters().toString(), kind);
+            observations.kinds[kind.ordinal()] = observation; // Racing writers create equal observations
+        }
+        log.addPrimitive(observation, PrimitiveObservation.toBits(kind, value));
+        return true;
+    }
+
     public final void addObservedValue(ObjectInformation value) {
-        example2ObservedValues.computeIfAbsent(getExampleName(), n -> new ArrayList<>()).add(value);
+        getOrCreateLog(getExampleName()).add(value);
+    }
+
+    private ObservationLog getOrCreateLog(String exampleName) {
+        return example2ObservedValues.computeIfAbsent(exampleName, n -> new ObservationLog(observationLimit, observationPool, 31L * lineNumber + Objects.hashCode(n)));
+    }
+
+    /**
+     * Limits the number of values kept per example. Must be set before values are observed.
+     */
+    final void setObservationLimit(ObservationLimit observationLimit) {
+        this.observationLimit = observationLimit;
+    }
+
+    /**
+     * Sets the pool observed values are interned in. Must be set before values are observed.
+     */
+    final void setObservationPool(ObservationPool observationPool) {
+        this.observationPool = observationPool;
+    }
+
+    /**
+     * Returns a snapshot of the values observed so far, which is safe to use while the example
+     * continues to run.
+     */
+    public final List<ObjectInformation> getObservedValuesOrNull(String exampleName) {
+        ObservationLog log = example2ObservedValues.get(exampleName);
+        return log == null ? null : log.snapshot();
+    }
+
+    /**
+     * Returns the number of values observed for the example, including elided values.
+     */
+    public final long getObservationCount(String exampleName) {
+        ObservationLog log = example2ObservedValues.get(exampleName);
+        return log == null ? 0 : log.snapshot().getObservationCount();
+    }
+
+    public final void addObservedValues(String exampleName, List<ObjectInformation> values, long observationCount) {
+        getOrCreateLog(exampleName).addAll(values, observationCount);
     }
 
     public final String getExampleName() {
@@ -58,24 +144,80 @@ public abstract class AbstractProbe {
         json.put("probeType", getProbeType());
         json.put("lineIndex", lineNumber - 1);
         JSONArray examples = new JSONArray();
-        for (Entry<String, ArrayList<ObjectInformation>> entry : example2ObservedValues.entrySet()) {
+        for (Entry<String, ObservationLog> entry : example2ObservedValues.entrySet()) {
+            ObservationLog.Snapshot values = entry.getValue().snapshot();
             JSONObject example = new JSONObject();
             example.put("exampleName", entry.getKey());
             JSONArray observedValuesJSON = new JSONArray();
-            for (ObjectInformation value : entry.getValue()) {
+            for (ObjectInformation value : values) {
                 observedValuesJSON.put(value.getJSON());
             }
             example.put("observedValues", observedValuesJSON);
+            putObservationCount(example, values);
             examples.put(example);
         }
         json.put("examples", examples);
         return json;
     }
 
+    /**
+     * Returns the values observed since the previous delta, or <code>null</code> if there are none
+     * and the probe was already sent.
+     */
+    final JSONObject toDeltaJSONOrNull(ResultDeltaEncoder encoder, boolean isNew) {
+        JSONArray examples = new JSONArray();
+        for (Entry<String, ObservationLog> entry : example2ObservedValues.entrySet()) {
+            ObservationLog.Snapshot values = entry.getValue().snapshot();
+            long sentCount = encoder.updateSentCount(entry.getValue(), values.getObservationCount());
+            if (sentCount != values.getObservationCount()) {
+                int startIndex = values.getUnchangedSize(sentCount);
+                JSONObject example = new JSONObject();
+                example.put("exampleName", entry.getKey());
+                example.put("startIndex", startIndex);
+                JSONArray observedValuesJSON = new JSONArray();
+                for (ObjectInformation value : values.subList(startIndex, values.size())) {
+                    observedValuesJSON.put(value.getJSON());
+                }
+                example.put("observedValues", observedValuesJSON);
+                putObservationCount(example, values);
+                examples.put(example);
+            }
+        }
+        if (!isNew && examples.length() == 0) {
+            return null;
+        }
+        JSONObject json = new JSONObject();
+        json.put("probeType", getProbeType());
+        json.put("lineIndex", lineNumber - 1);
+        json.put("examples", examples);
+        return json;
+    }
+
+    private static void putObservationCount(JSONObject example, ObservationLog.Snapshot values) {
+        if (values.getObservationCount() > values.size()) {
+            example.put("observationCount", values.getObservationCount());
+            if (values.getElisionIndex() >= 0) {
+                example.put("elisionIndex", values.getElisionIndex());
+            }
+        }
+    }
+
     protected abstract ObjectInformation getObjectInformation(ExampleProbe example, SourceSection section, Object value, Function<String, Object> inlineEvaluator);
 
     protected abstract ProbeType getProbeType();
 
+    /**
+     * Shared primitive observations of the source section last observed by a probe.
+     */
+    private static final class PrimitiveObservations {
+        private final SourceSection section;
+        private final PrimitiveObservation[] kinds = new PrimitiveObservation[PrimitiveObservation.Kind.values().length];
+
+        private PrimitiveObservations(SourceSection section) {
+            this.section = section;
+        }
+    }
+
     public static final class AssertionProbe extends AbstractProbe {
         public static final String ASSERTION_EXPECTED_ATTRIBUTE = ":expected";
         public static final String ASSERTION_EXPRESSION_ATTRIBUTE = ":expression";
@@ -93,6 +235,11 @@ public abstract class AbstractProbe {
             return isExpectedValue;
         }
 
+        @Override
+        public String getInlineExpressionOrNull() {
+            return expression;
+        }
+
         @Override
         protected ObjectInformation getObjectInformation(ExampleProbe example, SourceSection section, Object value, Function<String, Object> inlineEvaluator) {
             Object result = inlineEvaluator.apply(expression);
@@ -126,6 +273,8 @@ public abstract class AbstractProbe {
         private final String targetIdentifier;
         private final String[] targetArgumentExpressions;
         private final String languageId;
+        private final HashMap<URI, ArrayList<int[]>> coveredLines = new HashMap<>();
+        private volatile LineProfile lineProfile;
 
         public ExampleProbe(String line, int lineNumber, String languageId, FunctionDefinition functionDefinition, LinkedHashMap<String, String> attributes) {
             super(attributes.getOrDefault(EXAMPLE_NAME_ATTRIBUTE, fallbackName(line)), lineNumber);
@@ -161,6 +310,30 @@ public abstract class AbstractProbe {
             return String.format("%s(%s)", targetIdentifier, String.join(", ", targetArgumentExpressions));
         }
 
+        /**
+         * Records that the example reached a function spanning the given lines of a file.
+         */
+        public void addCoveredLines(URI uri, int startLine, int endLine) {
+            coveredLines.computeIfAbsent(uri, u -> new ArrayList<>()).add(new int[]{startLine, endLine});
+        }
+
+        public Map<URI, ArrayList<int[]>> getCoveredLines() {
+            return coveredLines;
+        }
+
+        public void setLineProfile(LineProfile lineProfile) {
+            this.lineProfile = lineProfile;
+        }
+
+        public LineProfile getLineProfileOrNull() {
+            return lineProfile;
+        }
+
+        @Override
+        protected boolean observesReturnValue() {
+            return true;
+        }
+
         @Override
         protected ObjectInformation getObjectInformation(ExampleProbe example, SourceSection section, Object value, Function<String, Object> inlineEvaluator) {
             return ObjectInformation.create(section.getCharacters().toString(), value);
@@ -177,6 +350,11 @@ public abstract class AbstractProbe {
             super(exampleNameOrNull, lineNumber);
         }
 
+        @Override
+        protected boolean observesReturnValue() {
+            return true;
+        }
+
         @Override
         protected ObjectInformation getObjectInformation(ExampleProbe example, SourceSection section, Object value, Function<String, Object> inlineEvaluator) {
             return ObjectInformation.create(section.getCharacters().toString(), value);
@@ -196,6 +374,11 @@ public abstract class AbstractProbe {
             this.expression = expression;
         }
 
+        @Override
+        public String getInlineExpressionOrNull() {
+            return expression;
+        }
+
         @Override
         protected ObjectInformation getObjectInformation(ExampleProbe example, SourceSection section, Object value, Function<String, Object> inlineEvaluator) {
             return ObjectInformation.create(expression, inlineEvaluator.apply(expression));
@@ -212,6 +395,11 @@ public abstract class AbstractProbe {
             super(exampleNameOrNull, lineNumber);
         }
 
+        @Override
+        protected boolean observesReturnValue() {
+            return true;
+        }
+
         @Override
         protected ObjectInformation getObjectInformation(ExampleProbe example, SourceSection section, Object value, Function<String, Object> inlineEvaluator) {
             return ObjectInformation.create(section.getCharacters().toString(), value);
@@ -232,6 +420,11 @@ public abstract class AbstractProbe {
             this.expression = expression;
         }
 
+        @Override
+        public String getInlineExpressionOrNull() {
+            return expression;
+        }
+
         @Override
         protected ObjectInformation getObjectInformation(ExampleProbe example, SourceSection section, Object value, Function<String, Object> inlineEvaluator) {
             return ObjectInformation.create(expression, inlineEvaluator.apply(expression));
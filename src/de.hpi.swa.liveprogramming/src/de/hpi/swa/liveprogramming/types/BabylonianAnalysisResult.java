@@ -9,11 +9,16 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
-import com.oracle.truffle.api.instrumentation.SourceSectionFilter.Builder;
 import com.oracle.truffle.api.instrumentation.SourceSectionFilter.IndexRange;
 import com.oracle.truffle.api.instrumentation.StandardTags;
 import com.oracle.truffle.tools.utils.json.JSONArray;
@@ -21,19 +26,72 @@ import com.oracle.truffle.tools.utils.json.JSONObject;
 
 import de.hpi.swa.liveprogramming.BabylonianAnalysisExtension;
 import de.hpi.swa.liveprogramming.types.AbstractProbe.ExampleProbe;
+import de.hpi.swa.liveprogramming.types.AbstractProbe.OrphanProbe;
 
+/**
+ * Result of an analysis, designed for a single writer (the thread running the examples) and
+ * concurrent readers such as the periodic decoration updater. Readers never block the writer and
+ * see a consistent prefix of the values observed by each probe.
+ */
 public final class BabylonianAnalysisResult {
-    private final HashMap<URI, BabylonianAnalysisFileResult> files = new HashMap<>();
-    private SourceSectionFilter[] filters;
+    private final ConcurrentHashMap<URI, BabylonianAnalysisFileResult> files = new ConcurrentHashMap<>();
+    private final ObservationLimit observationLimit;
+    private final ObservationPool observationPool = new ObservationPool();
+    private SourceSectionFilter filter;
+    private volatile Map<URI, Set<Integer>> probedLines;
+
+    public BabylonianAnalysisResult(ObservationLimit observationLimit) {
+        this.observationLimit = observationLimit;
+    }
 
     public BabylonianAnalysisFileResult getOrCreateFile(URI uri, String languageId) {
-        return files.computeIfAbsent(uri, u -> new BabylonianAnalysisFileResult(u, languageId));
+        return files.computeIfAbsent(uri, u -> new BabylonianAnalysisFileResult(u, languageId, observationLimit, observationPool));
+    }
+
+    public BabylonianAnalysisFileResult getFileOrNull(URI uri) {
+        return files.get(uri);
     }
 
     public Collection<BabylonianAnalysisFileResult> getFileResults() {
         return files.values();
     }
 
+    /**
+     * Merges the observations of an example recorded into another result (e.g. by a worker) into
+     * the corresponding example of this result.
+     */
+    public void mergeExample(BabylonianAnalysisResult other, ExampleProbe otherExample, ExampleProbe example) {
+        List<ObjectInformation> exampleValues = otherExample.getObservedValuesOrNull(otherExample.getExampleName());
+        if (exampleValues != null) {
+            example.addObservedValues(example.getExampleName(), exampleValues, otherExample.getObservationCount(otherExample.getExampleName()));
+        }
+        for (Map.Entry<URI, ArrayList<int[]>> entry : otherExample.getCoveredLines().entrySet()) {
+            for (int[] lines : entry.getValue()) {
+                example.addCoveredLines(entry.getKey(), lines[0], lines[1]);
+            }
+        }
+        example.setLineProfile(otherExample.getLineProfileOrNull());
+        for (BabylonianAnalysisFileResult otherFile : other.files.values()) {
+            BabylonianAnalysisFileResult file = null;
+            for (Map.Entry<Integer, AbstractProbe> entry : otherFile.probes.entrySet()) {
+                AbstractProbe otherProbe = entry.getValue();
+                List<ObjectInformation> values = otherProbe.getObservedValuesOrNull(example.getExampleName());
+                if (values == null) {
+                    continue;
+                }
+                if (file == null) {
+                    file = getOrCreateFile(otherFile.uri, otherFile.languageId);
+                }
+                AbstractProbe probe = file.get(entry.getKey());
+                if (probe == null) {
+                    probe = new OrphanProbe(null, entry.getKey());
+                    file.addProbe(entry.getKey(), probe);
+                }
+                probe.addObservedValues(example.getExampleName(), values, otherProbe.getObservationCount(example.getExampleName()));
+            }
+        }
+    }
+
     public JSONObject toJSON() {
         JSONObject json = new JSONObject();
         JSONArray filesJSON = new JSONArray();
@@ -44,25 +102,58 @@ public final class BabylonianAnalysisResult {
         return json;
     }
 
-    public SourceSectionFilter[] getSourceSectionFilters() {
-        if (filters == null) {
-            filters = new SourceSectionFilter[files.size()];
-            int filterIndex = 0;
+    /**
+     * Returns a single filter for the statements on all probe and assertion lines of all files.
+     * The filter matches all probed lines in every probed file, so the probed lines of the file
+     * of a node must be checked with {@link #isProbedLine(URI, int)}.
+     */
+    public synchronized SourceSectionFilter getSourceSectionFilter() {
+        if (filter == null) {
+            HashMap<URI, Set<Integer>> lines = new HashMap<>();
+            TreeSet<Integer> allLines = new TreeSet<>();
             for (Map.Entry<URI, BabylonianAnalysisFileResult> entry : files.entrySet()) {
-                Builder builder = SourceSectionFilter.newBuilder().tagIs(StandardTags.StatementTag.class);
-                // Check URI rather than source identity as source may change
-                final URI normalizedURI = BabylonianAnalysisExtension.toSourceURI(entry.getKey());
-                builder.sourceIs(s -> s.getURI().equals(normalizedURI));
-                // All probe and assertion lines
-                builder.lineIn(toIndexRanges(entry.getValue().probes.keySet()));
-                filters[filterIndex++] = builder.build();
+                Set<Integer> fileLines = new HashSet<>(entry.getValue().probes.keySet());
+                if (!fileLines.isEmpty()) {
+                    lines.put(BabylonianAnalysisExtension.toSourceURI(entry.getKey()), fileLines);
+                    allLines.addAll(fileLines);
+                }
             }
+            probedLines = lines;
+            // Check URI rather than source identity as source may change or not be evaluated again
+            filter = SourceSectionFilter.newBuilder().tagIs(StandardTags.StatementTag.class).sourceIs(s -> lines.containsKey(s.getURI())).lineIn(toIndexRanges(allLines)).build();
         }
-        return filters;
+        return filter;
     }
 
-    private static IndexRange[] toIndexRanges(Set<Integer> set) {
-        return set.stream().map(i -> IndexRange.between(i, i + 1)).toArray(IndexRange[]::new);
+    /**
+     * Returns whether a line of a source was probed when the filter was built.
+     */
+    public boolean isProbedLine(URI sourceURI, int lineNumber) {
+        Map<URI, Set<Integer>> lines = probedLines;
+        Set<Integer> fileLines = lines == null ? null : lines.get(sourceURI);
+        return fileLines != null && fileLines.contains(lineNumber);
+    }
+
+    /**
+     * Merges consecutive lines into a single range.
+     */
+    private static IndexRange[] toIndexRanges(SortedSet<Integer> lines) {
+        ArrayList<IndexRange> ranges = new ArrayList<>();
+        int start = -1;
+        int end = -1;
+        for (int line : lines) {
+            if (line != end) {
+                if (start >= 0) {
+                    ranges.add(IndexRange.between(start, end));
+                }
+                start = line;
+            }
+            end = line + 1;
+        }
+        if (start >= 0) {
+            ranges.add(IndexRange.between(start, end));
+        }
+        return ranges.toArray(new IndexRange[0]);
     }
 
     public static final class BabylonianAnalysisTerminationResult {
@@ -86,15 +177,20 @@ public final class BabylonianAnalysisResult {
     public static final class BabylonianAnalysisFileResult {
         private final URI uri;
         private final String languageId;
-        private final ArrayList<ExampleProbe> examples = new ArrayList<>();
-        private final HashMap<Integer, AbstractProbe> probes = new HashMap<>();
+        private final CopyOnWriteArrayList<ExampleProbe> examples = new CopyOnWriteArrayList<>();
+        private final ConcurrentHashMap<Integer, AbstractProbe> probes = new ConcurrentHashMap<>();
+        private final CopyOnWriteArrayList<JSONObject> diagnostics = new CopyOnWriteArrayList<>();
+        private final ObservationLimit observationLimit;
+        private final ObservationPool observationPool;
 
-        public BabylonianAnalysisFileResult(URI uri, String languageId) {
+        BabylonianAnalysisFileResult(URI uri, String languageId, ObservationLimit observationLimit, ObservationPool observationPool) {
             this.uri = uri;
             this.languageId = languageId;
+            this.observationLimit = observationLimit;
+            this.observationPool = observationPool;
         }
 
-        private JSONObject toJSON() {
+        public JSONObject toJSON() {
             JSONObject json = new JSONObject();
             json.put("uri", uri.toString());
             json.put("languageId", languageId);
@@ -106,19 +202,98 @@ public final class BabylonianAnalysisResult {
                 probesJSON.put(probe.toJSON());
             }
             json.put("probes", probesJSON);
+            if (!diagnostics.isEmpty()) {
+                json.put("diagnostics", new JSONArray(diagnostics));
+            }
+            JSONArray profilesJSON = new JSONArray();
+            for (ExampleProbe example : examples) {
+                LineProfile profile = example.getLineProfileOrNull();
+                if (profile != null) {
+                    JSONObject profileJSON = profile.toJSON();
+                    profileJSON.put("exampleName", example.getExampleName());
+                    profilesJSON.put(profileJSON);
+                }
+            }
+            if (profilesJSON.length() > 0) {
+                json.put("profiles", profilesJSON);
+            }
+            return json;
+        }
+
+        JSONObject toDeltaJSONOrNull(ResultDeltaEncoder encoder, boolean isNew) {
+            JSONArray probesJSON = new JSONArray();
+            for (AbstractProbe probe : examples) {
+                putIfNotNull(probesJSON, probe.toDeltaJSONOrNull(encoder, isNew));
+            }
+            for (AbstractProbe probe : probes.values()) {
+                putIfNotNull(probesJSON, probe.toDeltaJSONOrNull(encoder, isNew));
+            }
+            if (!isNew && probesJSON.length() == 0) {
+                return null;
+            }
+            JSONObject json = new JSONObject();
+            json.put("uri", uri.toString());
+            json.put("languageId", languageId);
+            json.put("probes", probesJSON);
+            if (isNew && !diagnostics.isEmpty()) {
+                json.put("diagnostics", new JSONArray(diagnostics));
+            }
             return json;
         }
 
+        private static void putIfNotNull(JSONArray array, JSONObject json) {
+            if (json != null) {
+                array.put(json);
+            }
+        }
+
         public void addProbe(int triggerLine, AbstractProbe probe) {
-            assert !probes.containsKey(triggerLine);
-            probes.put(triggerLine, probe);
+            probe.setObservationLimit(observationLimit);
+            probe.setObservationPool(observationPool);
+            AbstractProbe previous = probes.putIfAbsent(triggerLine, probe);
+            assert previous == null;
         }
 
         public AbstractProbe get(int triggerLine) {
             return probes.get(triggerLine);
         }
 
+        public Map<Integer, AbstractProbe> getProbes() {
+            return probes;
+        }
+
+        /**
+         * Returns the probe or example annotated at the given line, as opposed to
+         * {@link #get(int)}, which looks probes up by the line that triggers them.
+         */
+        public AbstractProbe getAnnotatedProbeOrNull(int lineNumber) {
+            for (AbstractProbe probe : probes.values()) {
+                if (probe.getLineNumber() == lineNumber) {
+                    return probe;
+                }
+            }
+            for (ExampleProbe example : examples) {
+                if (example.getLineNumber() == lineNumber) {
+                    return example;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reports a malformed annotation at the given line and (zero-based) column.
+         */
+        public void addDiagnostic(int lineNumber, int column, String message) {
+            JSONObject diagnostic = new JSONObject();
+            diagnostic.put("lineIndex", lineNumber - 1);
+            diagnostic.put("column", column);
+            diagnostic.put("message", message);
+            diagnostics.add(diagnostic);
+        }
+
         public void addExample(ExampleProbe example) {
+            example.setObservationLimit(observationLimit);
+            example.setObservationPool(observationPool);
             examples.add(example);
         }
 
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONException;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+/**
+ * Compact binary encoding of file results and deltas as produced by
+ * {@link BabylonianAnalysisResult} (<code>src/babylonianAnalysisBinary.ts</code> decodes it on
+ * the client). All strings and observed values are interned: the first occurrence is written
+ * inline and later ones refer to it by index. Values are identified by their structure (see
+ * {@link ObservationPool.ValueKey}), so repeated observations of the same value are only
+ * written once. Integers are written as unsigned variable-length quantities, interop
+ * properties as bit flags, and only the fields present in an observed value are written. Keys the
+ * encoding does not know are kept as JSON, so that decoding always yields the original JSON.
+ */
+public final class BinaryResultCodec {
+    /* Interop properties in the order of their bit flags, must match the client. */
+    private static final List<String> INTEROP_PROPERTIES = Arrays.asList("boolean", "date", "duration", "exception", "instant", "metaObject", "null", "number", "pointer", "string", "time",
+                    "timezone", "executable", "instantiable");
+
+    private static final int VALUE_EXPRESSION = 1;
+    private static final int VALUE_DISPLAY_STRING = 1 << 1;
+    private static final int VALUE_INTEROP_PROPERTIES = 1 << 2;
+    private static final int VALUE_META_QUALIFIED_NAME = 1 << 3;
+    private static final int VALUE_META_SIMPLE_NAME = 1 << 4;
+    private static final int VALUE_HAS_MEMBERS = 1 << 5;
+    private static final int VALUE_ELEMENT_COUNT = 1 << 6;
+    private static final int VALUE_ERROR = 1 << 7;
+    private static final int VALUE_OTHER_KEYS = 1 << 8;
+    private static final int VALUE_REFERENCE = 1 << 9;
+
+    private static final int EXAMPLE_START_INDEX = 1;
+    private static final int EXAMPLE_OBSERVATION_COUNT = 1 << 1;
+    private static final int EXAMPLE_ELISION_INDEX = 1 << 2;
+
+    private static final int FILE_DIAGNOSTICS = 1;
+
+    private BinaryResultCodec() {
+    }
+
+    public static final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final HashMap<String, Integer> strings = new HashMap<>();
+        private final HashMap<ObservationPool.ValueKey, Integer> values = new HashMap<>();
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        public void writeUnsigned(long value) {
+            assert value >= 0;
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                out.write((int) ((remaining & 0x7F) | 0x80));
+                remaining >>>= 7;
+            }
+            out.write((int) remaining);
+        }
+
+        public void writeString(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeUnsigned(index + 1L);
+            } else {
+                strings.put(string, strings.size());
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeUnsigned(0);
+                writeUnsigned(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+
+        /**
+         * Writes a file result (see {@link BabylonianAnalysisFileResult#toJSON()}) or a file of a
+         * delta (see {@link ResultDeltaEncoder}).
+         */
+        public void writeFile(JSONObject file) {
+            writeString(file.getString("uri"));
+            writeString(file.getString("languageId"));
+            JSONArray diagnostics = file.optJSONArray("diagnostics");
+            writeUnsigned(diagnostics == null ? 0 : FILE_DIAGNOSTICS);
+            if (diagnostics != null) {
+                writeString(diagnostics.toString());
+            }
+            JSONArray probes = file.getJSONArray("probes");
+            writeUnsigned(probes.length());
+            for (int i = 0; i < probes.length(); i++) {
+                writeProbe(probes.getJSONObject(i));
+            }
+        }
+
+        private void writeProbe(JSONObject probe) {
+            writeString(String.valueOf(probe.get("probeType"))); // May be an enum constant
+            writeUnsigned(probe.getInt("lineIndex"));
+            JSONArray examples = probe.getJSONArray("examples");
+            writeUnsigned(examples.length());
+            for (int i = 0; i < examples.length(); i++) {
+                writeExample(examples.getJSONObject(i));
+            }
+        }
+
+        private void writeExample(JSONObject example) {
+            writeString(example.getString("exampleName"));
+            int flags = (example.has("startIndex") ? EXAMPLE_START_INDEX : 0) | (example.has("observationCount") ? EXAMPLE_OBSERVATION_COUNT : 0) |
+                            (example.has("elisionIndex") ? EXAMPLE_ELISION_INDEX : 0);
+            writeUnsigned(flags);
+            if ((flags & EXAMPLE_START_INDEX) != 0) {
+                writeUnsigned(example.getInt("startIndex"));
+            }
+            if ((flags & EXAMPLE_OBSERVATION_COUNT) != 0) {
+                writeUnsigned(example.getLong("observationCount"));
+            }
+            if ((flags & EXAMPLE_ELISION_INDEX) != 0) {
+                writeUnsigned(example.getInt("elisionIndex"));
+            }
+            JSONArray values = example.getJSONArray("observedValues");
+            writeUnsigned(values.length());
+            for (int i = 0; i < values.length(); i++) {
+                writeValue(values.getJSONObject(i));
+            }
+        }
+
+        /**
+         * Writes the JSON of an {@link ObjectInformation}.
+         */
+        public void writeValue(JSONObject value) {
+            ObservationPool.ValueKey valueKey = new ObservationPool.ValueKey(value);
+            Integer index = values.get(valueKey);
+            if (index != null) {
+                writeUnsigned(VALUE_REFERENCE);
+                writeUnsigned(index);
+                return;
+            }
+            values.put(valueKey, values.size());
+            JSONObject otherKeys = new JSONObject();
+            for (String key : value.keySet()) {
+                otherKeys.put(key, value.get(key));
+            }
+            int flags = 0;
+            String expression = (String) removeIfString(otherKeys, "expression");
+            flags |= expression != null ? VALUE_EXPRESSION : 0;
+            String displayString = (String) removeIfString(otherKeys, "displayString");
+            flags |= displayString != null ? VALUE_DISPLAY_STRING : 0;
+            long interopProperties = toInteropPropertyFlagsOrNegative(otherKeys.optJSONArray("interopProperties"));
+            if (interopProperties >= 0) {
+                otherKeys.remove("interopProperties");
+                flags |= VALUE_INTEROP_PROPERTIES;
+            }
+            String metaQualifiedName = (String) removeIfString(otherKeys, "metaQualifiedName");
+            flags |= metaQualifiedName != null ? VALUE_META_QUALIFIED_NAME : 0;
+            String metaSimpleName = (String) removeIfString(otherKeys, "metaSimpleName");
+            flags |= metaSimpleName != null ? VALUE_META_SIMPLE_NAME : 0;
+            if (Boolean.TRUE.equals(otherKeys.opt("hasMembers"))) {
+                otherKeys.remove("hasMembers");
+                flags |= VALUE_HAS_MEMBERS;
+            }
+            long elementCount = otherKeys.opt("elementCount") instanceof Number ? otherKeys.getLong("elementCount") : -1;
+            if (elementCount >= 0) {
+                otherKeys.remove("elementCount");
+                flags |= VALUE_ELEMENT_COUNT;
+            }
+            String error = (String) removeIfString(otherKeys, "error");
+            flags |= error != null ? VALUE_ERROR : 0;
+            flags |= otherKeys.length() > 0 ? VALUE_OTHER_KEYS : 0;
+
+            writeUnsigned(flags);
+            writeStringIfNotNull(expression);
+            writeStringIfNotNull(displayString);
+            if (interopProperties >= 0) {
+                writeUnsigned(interopProperties);
+            }
+            writeStringIfNotNull(metaQualifiedName);
+            writeStringIfNotNull(metaSimpleName);
+            if (elementCount >= 0) {
+                writeUnsigned(elementCount);
+            }
+            writeStringIfNotNull(error);
+            if (otherKeys.length() > 0) {
+                writeString(otherKeys.toString());
+            }
+        }
+
+        private void writeStringIfNotNull(String string) {
+            if (string != null) {
+                writeString(string);
+            }
+        }
+
+        private static Object removeIfString(JSONObject json, String key) {
+            Object value = json.opt(key);
+            if (value instanceof String) {
+                json.remove(key);
+                return value;
+            }
+            return null;
+        }
+
+        private static long toInteropPropertyFlagsOrNegative(JSONArray properties) {
+            if (properties == null) {
+                return -1;
+            }
+            long flags = 0;
+            for (int i = 0; i < properties.length(); i++) {
+                int index = INTEROP_PROPERTIES.indexOf(properties.opt(i));
+                if (index < 0) {
+                    return -1;
+                }
+                flags |= 1L << index;
+            }
+            return flags;
+        }
+    }
+
+    public static final class Reader {
+        private final ByteBuffer buffer;
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final ArrayList<JSONObject> values = new ArrayList<>();
+
+        public Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public boolean hasRemaining() {
+            return buffer.hasRemaining();
+        }
+
+        public long readUnsigned() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    throw new IllegalArgumentException("Malformed variable-length quantity");
+                }
+            }
+        }
+
+        private int readInt() {
+            return Math.toIntExact(readUnsigned());
+        }
+
+        public String readString() {
+            int index = readInt();
+            if (index > 0) {
+                return strings.get(index - 1);
+            }
+            byte[] bytes = new byte[readInt()];
+            buffer.get(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        /**
+         * Reads a file written by {@link Writer#writeFile(JSONObject)}.
+         *
+         * @throws IllegalArgumentException if the data is malformed
+         */
+        public JSONObject readFile() {
+            try {
+                JSONObject file = new JSONObject();
+                file.put("uri", readString());
+                file.put("languageId", readString());
+                if ((readInt() & FILE_DIAGNOSTICS) != 0) {
+                    file.put("diagnostics", new JSONArray(readString()));
+                }
+                int numberOfProbes = readInt();
+                JSONArray probes = new JSONArray();
+                for (int i = 0; i < numberOfProbes; i++) {
+                    probes.put(readProbe());
+                }
+                file.put("probes", probes);
+                return file;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | ArithmeticException | JSONException e) {
+                throw new IllegalArgumentException("Malformed result data", e);
+            }
+        }
+
+        private JSONObject readProbe() {
+            JSONObject probe = new JSONObject();
+            probe.put("probeType", readString());
+            probe.put("lineIndex", readInt());
+            int numberOfExamples = readInt();
+            JSONArray examples = new JSONArray();
+            for (int i = 0; i < numberOfExamples; i++) {
+                examples.put(readExample());
+            }
+            probe.put("examples", examples);
+            return probe;
+        }
+
+        private JSONObject readExample() {
+            JSONObject example = new JSONObject();
+            example.put("exampleName", readString());
+            int flags = readInt();
+            if ((flags & EXAMPLE_START_INDEX) != 0) {
+                example.put("startIndex", readInt());
+            }
+            if ((flags & EXAMPLE_OBSERVATION_COUNT) != 0) {
+                example.put("observationCount", readUnsigned());
+            }
+            if ((flags & EXAMPLE_ELISION_INDEX) != 0) {
+                example.put("elisionIndex", readInt());
+            }
+            int numberOfValues = readInt();
+            JSONArray values = new JSONArray();
+            for (int i = 0; i < numberOfValues; i++) {
+                values.put(readValue());
+            }
+            example.put("observedValues", values);
+            return example;
+        }
+
+        private JSONObject readValue() {
+            int flags = readInt();
+            if ((flags & VALUE_REFERENCE) != 0) {
+                return values.get(readInt());
+            }
+            JSONObject value = new JSONObject();
+            values.add(value);
+            if ((flags & VALUE_EXPRESSION) != 0) {
+                value.put("expression", readString());
+            }
+            if ((flags & VALUE_DISPLAY_STRING) != 0) {
+                value.put("displayString", readString());
+            }
+            if ((flags & VALUE_INTEROP_PROPERTIES) != 0) {
+                long interopProperties = readUnsigned();
+                JSONArray properties = new JSONArray();
+                for (int i = 0; i < INTEROP_PROPERTIES.size(); i++) {
+                    if ((interopProperties & (1L << i)) != 0) {
+                        properties.put(INTEROP_PROPERTIES.get(i));
+                    }
+                }
+                value.put("interopProperties", properties);
+            }
+            if ((flags & VALUE_META_QUALIFIED_NAME) != 0) {
+                value.put("metaQualifiedName", readString());
+            }
+            if ((flags & VALUE_META_SIMPLE_NAME) != 0) {
+                value.put("metaSimpleName", readString());
+            }
+            if ((flags & VALUE_HAS_MEMBERS) != 0) {
+                value.put("hasMembers", true);
+            }
+            if ((flags & VALUE_ELEMENT_COUNT) != 0) {
+                value.put("elementCount", readUnsigned());
+            }
+            if ((flags & VALUE_ERROR) != 0) {
+                value.put("error", readString());
+            }
+            if ((flags & VALUE_OTHER_KEYS) != 0) {
+                JSONObject otherKeys = new JSONObject(readString());
+                for (String key : otherKeys.keySet()) {
+                    value.put(key, otherKeys.get(key));
+                }
+            }
+            return value;
+        }
+    }
+}
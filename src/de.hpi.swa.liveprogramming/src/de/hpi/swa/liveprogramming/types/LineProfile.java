@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+/**
+ * Number of statements an example executed on each line and, if timed, the time spent in them
+ * excluding nested statements on other lines (self time). If allocations are tracked, also the
+ * number and size of objects allocated by each line and by the whole example. Counters are only
+ * updated by the thread running the example, without synchronization.
+ */
+public final class LineProfile {
+    private final boolean isTimed;
+    private final boolean isTrackingAllocations;
+    private final ConcurrentHashMap<URI, ConcurrentHashMap<Integer, LineCounter>> files = new ConcurrentHashMap<>();
+    private long allocationCount;
+    private long allocatedBytes;
+
+    public LineProfile(boolean isTimed, boolean isTrackingAllocations) {
+        this.isTimed = isTimed;
+        this.isTrackingAllocations = isTrackingAllocations;
+    }
+
+    public boolean isTimed() {
+        return isTimed;
+    }
+
+    public boolean isTrackingAllocations() {
+        return isTrackingAllocations;
+    }
+
+    public LineCounter getCounter(URI uri, int lineNumber) {
+        return files.computeIfAbsent(uri, u -> new ConcurrentHashMap<>()).computeIfAbsent(lineNumber, l -> new LineCounter());
+    }
+
+    /**
+     * Adds an allocation to the example and, unless it happened outside of the profiled lines, to
+     * the line allocating it.
+     */
+    public void addAllocation(LineCounter counterOrNull, boolean isNewObject, long bytes) {
+        if (isNewObject) {
+            allocationCount++;
+        }
+        allocatedBytes += bytes;
+        if (counterOrNull != null) {
+            counterOrNull.addAllocation(isNewObject, bytes);
+        }
+    }
+
+    /**
+     * Returns a copy with all lines mapped to the given (one-based) line numbers. Lines mapped to
+     * a negative line number are dropped.
+     */
+    public LineProfile mapLines(BiFunction<URI, Integer, Integer> lineMapping) {
+        LineProfile profile = new LineProfile(isTimed, isTrackingAllocations);
+        profile.allocationCount = allocationCount;
+        profile.allocatedBytes = allocatedBytes;
+        for (Map.Entry<URI, ConcurrentHashMap<Integer, LineCounter>> file : files.entrySet()) {
+            for (Map.Entry<Integer, LineCounter> line : file.getValue().entrySet()) {
+                int lineNumber = lineMapping.apply(file.getKey(), line.getKey());
+                if (lineNumber >= 0) {
+                    profile.getCounter(file.getKey(), lineNumber).add(line.getValue());
+                }
+            }
+        }
+        return profile;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("lines", linesToJSON());
+        if (isTrackingAllocations) {
+            json.put("allocationCount", allocationCount);
+            json.put("allocatedBytes", allocatedBytes);
+        }
+        return json;
+    }
+
+    private JSONArray linesToJSON() {
+        JSONArray json = new JSONArray();
+        for (Map.Entry<URI, ConcurrentHashMap<Integer, LineCounter>> file : files.entrySet()) {
+            for (Map.Entry<Integer, LineCounter> line : file.getValue().entrySet()) {
+                JSONObject lineJSON = new JSONObject();
+                lineJSON.put("uri", file.getKey().toString());
+                lineJSON.put("lineIndex", line.getKey() - 1);
+                lineJSON.put("hitCount", line.getValue().hitCount);
+                if (isTimed) {
+                    lineJSON.put("selfMillis", TimeUnit.NANOSECONDS.toMicros(line.getValue().selfNanos) / 1000.0);
+                }
+                if (isTrackingAllocations) {
+                    lineJSON.put("allocationCount", line.getValue().allocationCount);
+                    lineJSON.put("allocatedBytes", line.getValue().allocatedBytes);
+                }
+                json.put(lineJSON);
+            }
+        }
+        return json;
+    }
+
+    public static final class LineCounter {
+        private long hitCount;
+        private long selfNanos;
+        private long allocationCount;
+        private long allocatedBytes;
+
+        public void hit() {
+            hitCount++;
+        }
+
+        public void addSelfNanos(long nanos) {
+            selfNanos += nanos;
+        }
+
+        private void addAllocation(boolean isNewObject, long bytes) {
+            if (isNewObject) {
+                allocationCount++;
+            }
+            allocatedBytes += bytes;
+        }
+
+        private void add(LineCounter other) {
+            hitCount += other.hitCount;
+            selfNanos += other.selfNanos;
+            allocationCount += other.allocationCount;
+            allocatedBytes += other.allocatedBytes;
+        }
+    }
+}
@@ -5,6 +5,7 @@
  */
 package de.hpi.swa.liveprogramming.types;
 
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.interop.InteropLibrary;
 import com.oracle.truffle.api.interop.InvalidArrayIndexException;
 import com.oracle.truffle.api.interop.UnknownIdentifierException;
@@ -13,20 +14,118 @@ import com.oracle.truffle.tools.utils.json.JSONArray;
 import com.oracle.truffle.tools.utils.json.JSONException;
 import com.oracle.truffle.tools.utils.json.JSONObject;
 
+/**
+ * Information on an observed value. Only the display string and cheap interop properties are
+ * captured when a value is observed. Members and array elements of objects are materialized on
+ * demand (e.g. when the object explorer inspects the value), which requires the context of the
+ * value to be entered. They therefore show the state of the object when they were materialized,
+ * which is marked in their JSON, and the object is kept alive until then or until the details are
+ * discarded.
+ */
 public class ObjectInformation extends JSONBase {
+    /* Maximum number of members and array elements to materialize. */
+    private static final int MAX_DETAILS = 1000;
+    /* Marks details that were materialized after the value was observed. */
+    private static final String DETAILS_AFTER_OBSERVATION = "detailsAfterObservation";
+
+    private Object valueOrNull;
+    private JSONObject detailsOrNull;
 
     ObjectInformation(JSONObject jsonData) {
+        this(jsonData, null);
+    }
+
+    private ObjectInformation(JSONObject jsonData, Object valueOrNull) {
         super(jsonData);
+        this.valueOrNull = valueOrNull;
     }
 
     public JSONObject getJSON() {
         return jsonData;
     }
 
+    /**
+     * Returns the JSON including members and array elements, which are materialized if needed.
+     */
+    public JSONObject getDetailedJSON() {
+        return withDetails(materialize());
+    }
+
+    private JSONObject withDetails(JSONObject details) {
+        JSONObject json = new JSONObject();
+        for (String key : jsonData.keySet()) {
+            json.put(key, jsonData.get(key));
+        }
+        for (String key : details.keySet()) {
+            json.put(key, details.get(key));
+        }
+        return json;
+    }
+
+    /**
+     * Materializes members and array elements of the value (if any) and releases the value. Must
+     * be called with the context of the value entered.
+     */
+    public synchronized JSONObject materialize() {
+        if (detailsOrNull == null) {
+            if (valueOrNull == null) {
+                detailsOrNull = new JSONObject();
+            } else {
+                detailsOrNull = createDetails(valueOrNull);
+                detailsOrNull.put(DETAILS_AFTER_OBSERVATION, true);
+            }
+            valueOrNull = null;
+        }
+        return detailsOrNull;
+    }
+
+    /**
+     * Releases the value without materializing its members and array elements, e.g. because its
+     * context was cancelled.
+     */
+    public synchronized void discardDetails(String reason) {
+        if (detailsOrNull == null) {
+            detailsOrNull = new JSONObject();
+            if (valueOrNull != null) {
+                detailsOrNull.put("detailsError", reason);
+            }
+            valueOrNull = null;
+        }
+    }
+
+    /**
+     * Returns whether the value neither keeps a value to materialize details from nor
+     * materialized details, so that it can be shared by all observations of identical values.
+     */
+    synchronized boolean isShareable() {
+        return valueOrNull == null && detailsOrNull == null;
+    }
+
+    /**
+     * Returns a copy of this value with the given captured data, which must be identical to the
+     * captured data of this value (see {@link ObservationPool}).
+     */
+    synchronized ObjectInformation withCapturedData(JSONObject capturedData) {
+        ObjectInformation copy = new ObjectInformation(capturedData, valueOrNull);
+        copy.detailsOrNull = detailsOrNull;
+        return copy;
+    }
+
     public static ObjectInformation create(String expression, Object result) {
         return create(expression, result, null);
     }
 
+    /**
+     * Returns the JSON of a value including its members and array elements, which are
+     * materialized right away and thus show the state of the value when it was passed.
+     */
+    @TruffleBoundary
+    public static JSONObject createDetailedJSON(String expression, Object result) {
+        ObjectInformation value = create(expression, result);
+        return value.withDetails(value.valueOrNull == null ? new JSONObject() : createDetails(value.valueOrNull));
+    }
+
+    @TruffleBoundary
     public static ObjectInformation create(String expression, Object result, String error) {
         final JSONObject json = new JSONObject();
         InteropLibrary lib = InteropLibrary.getUncached();
@@ -41,36 +140,57 @@ public class ObjectInformation extends JSONBase {
                 json.put("metaQualifiedName", lib.getMetaQualifiedName(metaObject));
                 json.put("metaSimpleName", lib.getMetaSimpleName(metaObject));
             }
+            boolean hasDetails = false;
             if (lib.hasMembers(result)) {
+                json.put("hasMembers", true);
+                hasDetails = true;
+            }
+            if (lib.hasArrayElements(result)) {
+                json.put("elementCount", lib.getArraySize(result));
+                hasDetails = true;
+            }
+            if (error != null) {
+                json.put("error", error);
+            }
+            return new ObjectInformation(json, hasDetails ? result : null);
+        } catch (JSONException | UnsupportedMessageException e) {
+            return createError(expression, displayString, e.getMessage());
+        }
+    }
+
+    private static JSONObject createDetails(Object value) {
+        final JSONObject json = new JSONObject();
+        InteropLibrary lib = InteropLibrary.getUncached();
+        try {
+            if (lib.hasMembers(value)) {
                 JSONArray memberNames = new JSONArray();
                 JSONArray memberStrings = new JSONArray();
-                Object membersObj = lib.getMembers(result);
+                Object membersObj = lib.getMembers(value);
                 long membersArraySize = lib.getArraySize(membersObj);
-                for (int i = 0; i < membersArraySize; i++) {
+                for (int i = 0; i < membersArraySize && memberNames.length() < MAX_DETAILS; i++) {
                     String memberName = lib.asString(lib.readArrayElement(membersObj, i));
-                    if (lib.isMemberReadable(result, memberName)) {
+                    if (lib.isMemberReadable(value, memberName)) {
                         memberNames.put(memberName);
-                        memberStrings.put(lib.toDisplayString(lib.readMember(result, memberName)));
+                        memberStrings.put(lib.asString(lib.toDisplayString(lib.readMember(value, memberName))));
                     }
                 }
                 json.put("memberNames", memberNames);
                 json.put("memberDisplayStrings", memberStrings);
+                json.put("memberCount", membersArraySize);
             }
-            if (lib.hasArrayElements(result)) {
+            if (lib.hasArrayElements(value)) {
                 JSONArray elements = new JSONArray();
-                long arraySize = lib.getArraySize(result);
-                for (int i = 0; i < arraySize; i++) {
-                    elements.put(lib.asString(lib.toDisplayString(lib.readArrayElement(result, i))));
+                long arraySize = lib.getArraySize(value);
+                for (int i = 0; i < Math.min(arraySize, MAX_DETAILS); i++) {
+                    elements.put(lib.asString(lib.toDisplayString(lib.readArrayElement(value, i))));
                 }
                 json.put("elements", elements);
+                json.put("elementCount", arraySize);
             }
         } catch (JSONException | UnsupportedMessageException | InvalidArrayIndexException | UnknownIdentifierException e) {
-            return createError(expression, displayString, e.getMessage());
+            json.put("detailsError", e.getMessage());
         }
-        if (error != null) {
-            json.put("error", error);
-        }
-        return new ObjectInformation(json);
+        return json;
     }
 
     private static JSONArray getInteropProperties(InteropLibrary lib, Object value) {
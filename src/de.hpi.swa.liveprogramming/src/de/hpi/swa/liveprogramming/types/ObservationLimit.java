@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+/**
+ * Maximum number of values a probe keeps per example and which values it keeps once the limit is
+ * reached. All other values are elided and only counted.
+ */
+public final class ObservationLimit {
+    public static final ObservationLimit UNLIMITED = new ObservationLimit(Strategy.FIRST, 0);
+
+    public enum Strategy {
+        /** Keep the first values. */
+        FIRST,
+        /** Keep the first and the last values (one half each). */
+        FIRST_AND_LAST,
+        /** Keep a uniform random sample of all values (reservoir sampling). */
+        RESERVOIR,
+    }
+
+    private final Strategy strategy;
+    private final int limit;
+
+    /**
+     * Creates a limit of at most <code>limit</code> values, <code>0</code> keeps all values.
+     */
+    public ObservationLimit(Strategy strategy, int limit) {
+        assert limit >= 0;
+        this.strategy = strategy;
+        this.limit = limit;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    boolean isUnlimited() {
+        return limit == 0;
+    }
+
+    int getCapacity() {
+        return limit == 0 ? Integer.MAX_VALUE : limit;
+    }
+
+    /**
+     * Number of leading values that are never replaced once the limit is reached.
+     */
+    int getHeadSize() {
+        switch (strategy) {
+            case FIRST:
+                return getCapacity();
+            case FIRST_AND_LAST:
+                return limit - limit / 2;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.hpi.swa.liveprogramming.types.ObservationLimit.Strategy;
+
+/**
+ * Bounded log of observed values for any number of concurrent readers. Writers are serialized on
+ * the log, which is uncontended unless guest threads or other examples observe values through the
+ * same log concurrently. A writer stores a value before publishing it through the volatile size, so
+ * readers never block writers and always see a consistent prefix of the log. Once the
+ * {@link ObservationLimit} is reached, values are replaced according to its strategy under a
+ * sequence lock, which readers retry instead of blocking the writer. A reservoir sample is drawn
+ * with a random generator seeded per log, so that the same run keeps the same values, and remembers
+ * when each value was observed to restore their order. The log counts all values, including the
+ * elided ones. Primitive values are stored unboxed in a column together with a shared
+ * {@link PrimitiveObservation}, their {@link ObjectInformation} is only created when they are read.
+ * Other values are interned in the {@link ObservationPool} of the analysis, if any.
+ */
+final class ObservationLog {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final ObservationLimit limit;
+    private final ObservationPool poolOrNull;
+    /* Either an ObjectInformation or the PrimitiveObservation of the value in the bits column. */
+    private volatile AtomicReferenceArray<Object> values;
+    private volatile AtomicLongArray bits;
+    /* Observation index of each value, only recorded for reservoir samples. */
+    private volatile AtomicLongArray observationIndicesOrNull;
+    private final SplittableRandom randomOrNull;
+    private volatile int size;
+    private volatile long totalCount;
+    /* Sequence lock for replacing published values, odd while a value is replaced. */
+    private volatile int version;
+    /* Position of the oldest of the last values, relative to the end of the first values. */
+    private volatile int oldestTailIndex;
+
+    /**
+     * Creates a log whose reservoir sample, if any, is drawn deterministically from the given seed.
+     */
+    ObservationLog(ObservationLimit limit, ObservationPool poolOrNull, long seed) {
+        this.limit = limit;
+        this.poolOrNull = poolOrNull;
+        int initialCapacity = Math.min(INITIAL_CAPACITY, limit.getCapacity());
+        values = new AtomicReferenceArray<>(initialCapacity);
+        bits = new AtomicLongArray(initialCapacity);
+        boolean isReservoir = !limit.isUnlimited() && limit.getStrategy() == Strategy.RESERVOIR;
+        observationIndicesOrNull = isReservoir ? new AtomicLongArray(initialCapacity) : null;
+        randomOrNull = isReservoir ? new SplittableRandom(seed) : null;
+    }
+
+    void add(ObjectInformation value) {
+        add(poolOrNull == null ? value : poolOrNull.intern(value), 0);
+    }
+
+    /**
+     * Adds a primitive value in its bit representation.
+     */
+    void addPrimitive(PrimitiveObservation observation, long valueBits) {
+        add(observation, valueBits);
+    }
+
+    private synchronized void add(Object value, long valueBits) {
+        long count = totalCount;
+        int currentSize = size;
+        if (currentSize < limit.getCapacity()) {
+            AtomicReferenceArray<Object> currentValues = values;
+            AtomicLongArray currentBits = bits;
+            AtomicLongArray currentIndices = observationIndicesOrNull;
+            if (currentSize == currentValues.length()) {
+                int newCapacity = (int) Math.min(currentSize * 2L, limit.getCapacity());
+                AtomicReferenceArray<Object> newValues = new AtomicReferenceArray<>(newCapacity);
+                AtomicLongArray newBits = new AtomicLongArray(newCapacity);
+                AtomicLongArray newIndices = currentIndices == null ? null : new AtomicLongArray(newCapacity);
+                for (int i = 0; i < currentSize; i++) {
+                    newValues.set(i, currentValues.get(i));
+                    newBits.set(i, currentBits.get(i));
+                    if (newIndices != null) {
+                        newIndices.set(i, currentIndices.get(i));
+                    }
+                }
+                observationIndicesOrNull = currentIndices = newIndices;
+                bits = currentBits = newBits;
+                values = currentValues = newValues;
+            }
+            if (currentIndices != null) {
+                currentIndices.set(currentSize, count);
+            }
+            currentBits.set(currentSize, valueBits);
+            currentValues.set(currentSize, value);
+            size = currentSize + 1;
+        } else if (limit.getStrategy() == Strategy.FIRST_AND_LAST) {
+            int headSize = limit.getHeadSize();
+            int tailSize = currentSize - headSize;
+            if (tailSize > 0) {
+                int index = oldestTailIndex;
+                int currentVersion = version;
+                version = currentVersion + 1;
+                bits.set(headSize + index, valueBits);
+                values.set(headSize + index, value);
+                oldestTailIndex = (index + 1) % tailSize;
+                version = currentVersion + 2;
+            }
+        } else if (limit.getStrategy() == Strategy.RESERVOIR) {
+            long index = randomOrNull.nextLong(count + 1);
+            if (index < currentSize) {
+                int currentVersion = version;
+                version = currentVersion + 1;
+                observationIndicesOrNull.set((int) index, count);
+                bits.set((int) index, valueBits);
+                values.set((int) index, value);
+                version = currentVersion + 2;
+            }
+        }
+        totalCount = count + 1;
+    }
+
+    /**
+     * Adds values elided from another log, counting <code>observationCount</code> values in
+     * total.
+     */
+    synchronized void addAll(List<ObjectInformation> newValues, long observationCount) {
+        long count = totalCount;
+        for (ObjectInformation value : newValues) {
+            add(value);
+        }
+        totalCount = count + Math.max(observationCount, newValues.size());
+    }
+
+    /**
+     * Returns an immutable snapshot of all values published so far, in the order they were
+     * observed.
+     */
+    Snapshot snapshot() {
+        if (limit.isUnlimited() || limit.getStrategy() == Strategy.FIRST) {
+            long count = totalCount; // Read count and size before values
+            int snapshotSize = size;
+            return new Snapshot(values, bits, snapshotSize, Math.max(count, snapshotSize), getElisionIndex(snapshotSize, count));
+        }
+        while (true) {
+            int currentVersion = version;
+            if ((currentVersion & 1) == 0) {
+                long count = totalCount; // Read count and size before values, which may grow
+                int snapshotSize = size;
+                int oldest = oldestTailIndex;
+                AtomicReferenceArray<Object> currentValues = values;
+                AtomicLongArray currentBits = bits;
+                AtomicLongArray currentIndices = observationIndicesOrNull;
+                AtomicReferenceArray<Object> copy = new AtomicReferenceArray<>(snapshotSize);
+                AtomicLongArray bitsCopy = new AtomicLongArray(snapshotSize);
+                long[] indicesCopy = currentIndices == null ? null : new long[snapshotSize];
+                int headSize = Math.min(limit.getHeadSize(), snapshotSize);
+                int tailSize = snapshotSize - headSize;
+                for (int i = 0; i < snapshotSize; i++) {
+                    int index = i < headSize ? i : headSize + (oldest + i - headSize) % tailSize;
+                    bitsCopy.set(i, currentBits.get(index));
+                    copy.set(i, currentValues.get(index));
+                    if (indicesCopy != null) {
+                        indicesCopy[i] = currentIndices.get(index);
+                    }
+                }
+                if (version == currentVersion) {
+                    if (indicesCopy != null) {
+                        return sortedByObservation(copy, bitsCopy, indicesCopy, snapshotSize, count);
+                    }
+                    return new Snapshot(copy, bitsCopy, snapshotSize, Math.max(count, snapshotSize), getElisionIndex(snapshotSize, count));
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /*
+     * Replaced reservoir slots hold later values than the slots after them, so the sample is
+     * sorted by observation index to keep the order in which values were observed.
+     */
+    private Snapshot sortedByObservation(AtomicReferenceArray<Object> unsortedValues, AtomicLongArray unsortedBits, long[] observationIndices, int snapshotSize, long count) {
+        Integer[] slots = new Integer[snapshotSize];
+        for (int i = 0; i < snapshotSize; i++) {
+            slots[i] = i;
+        }
+        Arrays.sort(slots, (a, b) -> Long.compare(observationIndices[a], observationIndices[b]));
+        AtomicReferenceArray<Object> sortedValues = new AtomicReferenceArray<>(snapshotSize);
+        AtomicLongArray sortedBits = new AtomicLongArray(snapshotSize);
+        for (int i = 0; i < snapshotSize; i++) {
+            int slot = slots[i];
+            sortedValues.set(i, unsortedValues.get(slot));
+            sortedBits.set(i, unsortedBits.get(slot));
+        }
+        return new Snapshot(sortedValues, sortedBits, snapshotSize, Math.max(count, snapshotSize), getElisionIndex(snapshotSize, count));
+    }
+
+    private int getElisionIndex(int snapshotSize, long count) {
+        if (count <= snapshotSize) {
+            return -1;
+        }
+        switch (limit.getStrategy()) {
+            case FIRST:
+                return snapshotSize;
+            case FIRST_AND_LAST:
+                return Math.min(limit.getHeadSize(), snapshotSize);
+            default:
+                return -1; // Elided values are spread across the sample
+        }
+    }
+
+    final class Snapshot extends AbstractList<ObjectInformation> implements RandomAccess {
+        private final AtomicReferenceArray<Object> snapshotValues;
+        private final AtomicLongArray snapshotBits;
+        private final int snapshotSize;
+        private final long observationCount;
+        private final int elisionIndex;
+
+        private Snapshot(AtomicReferenceArray<Object> values, AtomicLongArray bits, int size, long observationCount, int elisionIndex) {
+            this.snapshotValues = values;
+            this.snapshotBits = bits;
+            this.snapshotSize = size;
+            this.observationCount = observationCount;
+            this.elisionIndex = elisionIndex;
+        }
+
+        @Override
+        public ObjectInformation get(int index) {
+            if (index < 0 || index >= snapshotSize) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            Object value = snapshotValues.get(index);
+            if (value instanceof PrimitiveObservation) {
+                return ((PrimitiveObservation) value).toObjectInformation(snapshotBits.get(index));
+            }
+            return (ObjectInformation) value;
+        }
+
+        @Override
+        public int size() {
+            return snapshotSize;
+        }
+
+        /**
+         * Number of all observed values, including the elided ones.
+         */
+        long getObservationCount() {
+            return observationCount;
+        }
+
+        /**
+         * Index at which values were elided, or <code>-1</code> if no values were elided or if
+         * elided values are spread across the snapshot.
+         */
+        int getElisionIndex() {
+            return elisionIndex;
+        }
+
+        /**
+         * Number of leading values that did not change since a snapshot with the given
+         * observation count was taken.
+         */
+        int getUnchangedSize(long previousObservationCount) {
+            if (previousObservationCount <= 0) {
+                return 0;
+            } else if (previousObservationCount >= observationCount) {
+                return snapshotSize;
+            } else if (observationCount <= snapshotSize) {
+                return (int) previousObservationCount; // Nothing replaced yet
+            } else {
+                return (int) Math.min(previousObservationCount, Math.min(limit.getHeadSize(), snapshotSize));
+            }
+        }
+    }
+}
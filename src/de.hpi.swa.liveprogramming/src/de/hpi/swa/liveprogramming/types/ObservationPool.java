@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+/**
+ * Pool of the values observed during an analysis, so that probes observing the same value many
+ * times (e.g. in loops or recursive examples) share a single {@link ObjectInformation} instead of
+ * keeping identical copies of its captured data. Values are identified by a structural hash over
+ * their captured data. Values whose members and array elements can still be materialized keep
+ * their own instance, but share the captured data of the pooled value. Primitive values are not
+ * pooled, as the {@link ObservationLog} already stores them unboxed.
+ */
+final class ObservationPool {
+    /*
+     * Values are no longer pooled once the pool is full, so that traces of distinct values do not
+     * grow it without bound.
+     */
+    private static final int MAX_VALUES = 1 << 16;
+
+    private final ConcurrentHashMap<ValueKey, ObjectInformation> values = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the pooled value for the given value, or a value sharing the captured data of the
+     * pooled value if the given value has details.
+     */
+    ObjectInformation intern(ObjectInformation value) {
+        ValueKey key = new ValueKey(value.getJSON());
+        ObjectInformation pooled = values.get(key);
+        if (pooled == null) {
+            if (values.size() >= MAX_VALUES) {
+                return value;
+            }
+            ObjectInformation newPooled = value.isShareable() ? value : new ObjectInformation(value.getJSON());
+            pooled = values.putIfAbsent(key, newPooled);
+            if (pooled == null) {
+                return value;
+            }
+        }
+        return value.isShareable() ? pooled : value.withCapturedData(pooled.getJSON());
+    }
+
+    /**
+     * Identifies the JSON of a value by its structure.
+     */
+    static final class ValueKey {
+        private final JSONObject json;
+        private final int hash;
+
+        ValueKey(JSONObject json) {
+            this.json = json;
+            this.hash = structuralHash(json);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ValueKey && ((ValueKey) obj).hash == hash && json.similar(((ValueKey) obj).json);
+        }
+
+        private static int structuralHash(Object value) {
+            if (value instanceof JSONObject) {
+                JSONObject object = (JSONObject) value;
+                int result = 0;
+                for (String key : object.keySet()) {
+                    result += key.hashCode() ^ structuralHash(object.opt(key));
+                }
+                return result;
+            } else if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                int result = 1;
+                for (int i = 0; i < array.length(); i++) {
+                    result = 31 * result + structuralHash(array.opt(i));
+                }
+                return result;
+            } else {
+                return value == null ? 0 : value.hashCode();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+/**
+ * Descriptor shared by all primitive values of the same kind observed for the same expression.
+ * An {@link ObservationLog} stores such values unboxed in a column and only creates their
+ * {@link ObjectInformation} when they are serialized. Boxed primitives are handled by the
+ * default interop exports, so their display strings are the ones of the boxed types and they
+ * have no meta object.
+ */
+final class PrimitiveObservation {
+    enum Kind {
+        LONG,
+        DOUBLE,
+        FLOAT,
+        BOOLEAN,
+    }
+
+    private final String expression;
+    private final Kind kind;
+
+    PrimitiveObservation(String expression, Kind kind) {
+        this.expression = expression;
+        this.kind = kind;
+    }
+
+    /**
+     * Returns <code>null</code> if the value cannot be stored unboxed.
+     */
+    static Kind kindOrNull(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return Kind.LONG;
+        } else if (value instanceof Double) {
+            return Kind.DOUBLE;
+        } else if (value instanceof Float) {
+            return Kind.FLOAT;
+        } else if (value instanceof Boolean) {
+            return Kind.BOOLEAN;
+        } else {
+            return null;
+        }
+    }
+
+    static long toBits(Kind kind, Object value) {
+        switch (kind) {
+            case LONG:
+                return ((Number) value).longValue();
+            case DOUBLE:
+                return Double.doubleToRawLongBits((Double) value);
+            case FLOAT:
+                return Float.floatToRawIntBits((Float) value);
+            default:
+                return (Boolean) value ? 1 : 0;
+        }
+    }
+
+    ObjectInformation toObjectInformation(long bits) {
+        JSONObject json = new JSONObject();
+        json.put("expression", expression);
+        JSONArray interopProperties = new JSONArray();
+        switch (kind) {
+            case LONG:
+                json.put("displayString", Long.toString(bits));
+                interopProperties.put("number");
+                break;
+            case DOUBLE:
+                json.put("displayString", Double.toString(Double.longBitsToDouble(bits)));
+                interopProperties.put("number");
+                break;
+            case FLOAT:
+                json.put("displayString", Float.toString(Float.intBitsToFloat((int) bits)));
+                interopProperties.put("number");
+                break;
+            default:
+                json.put("displayString", Boolean.toString(bits != 0));
+                interopProperties.put("boolean");
+                break;
+        }
+        json.put("interopProperties", interopProperties);
+        return new ObjectInformation(json);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020, Software Architecture Group, Hasso Plattner Institute.
+ *
+ * Licensed under the MIT License.
+ */
+package de.hpi.swa.liveprogramming.types;
+
+import java.net.URI;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+import com.oracle.truffle.tools.utils.json.JSONArray;
+import com.oracle.truffle.tools.utils.json.JSONObject;
+
+import de.hpi.swa.liveprogramming.types.BabylonianAnalysisResult.BabylonianAnalysisFileResult;
+
+/**
+ * Encodes the observations made since the previous notification of an analysis. Each delta carries
+ * the epoch of the language server, the id of the analysis and a sequence number, so that clients
+ * can reconstruct the state of the analysis. Ids restart when the language server restarts, so
+ * deltas belong to the same analysis only if both epoch and id match. The first delta of a file
+ * contains all of its probes and diagnostics, later deltas only contain probes with new observed
+ * values, replacing all values from the given index on (values kept by a bounded probe may have
+ * been replaced since).
+ */
+public final class ResultDeltaEncoder {
+    public enum Encoding {
+        /** Files of a delta as JSON, for compatibility. */
+        JSON,
+        /** Files of a delta encoded with the {@link BinaryResultCodec} as Base64. */
+        BINARY,
+    }
+
+    private final long epoch;
+    private final long analysisId;
+    private final Encoding encoding;
+    private final IdentityHashMap<ObservationLog, Long> sentCounts = new IdentityHashMap<>();
+    private final HashSet<URI> sentFiles = new HashSet<>();
+    private long sequenceNumber;
+    private boolean isClosed;
+
+    public ResultDeltaEncoder(long epoch, long analysisId, Encoding encoding) {
+        this.epoch = epoch;
+        this.analysisId = analysisId;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Returns <code>null</code> if nothing changed since the previous delta or if the encoder was
+     * closed.
+     */
+    public synchronized JSONObject encodeOrNull(BabylonianAnalysisResult result) {
+        if (isClosed) {
+            return null;
+        }
+        JSONArray filesJSON = new JSONArray();
+        for (BabylonianAnalysisFileResult file : result.getFileResults()) {
+            boolean isNew = sentFiles.add(file.getURI());
+            JSONObject fileJSON = file.toDeltaJSONOrNull(this, isNew);
+            if (fileJSON != null) {
+                filesJSON.put(fileJSON);
+            }
+        }
+        if (filesJSON.length() == 0) {
+            return null;
+        }
+        return createDelta(filesJSON);
+    }
+
+    /**
+     * Encodes file results cached from a previous analysis (as returned by
+     * {@link BabylonianAnalysisFileResult#toJSON()}), which are shown until the probes of this
+     * analysis observe new values. Adds the start index to all examples of the given JSON.
+     * Returns <code>null</code> if there are no cached results or if the encoder was closed.
+     */
+    public synchronized JSONObject encodeCachedOrNull(Collection<JSONObject> fileJSONs) {
+        if (isClosed || fileJSONs.isEmpty()) {
+            return null;
+        }
+        JSONArray filesJSON = new JSONArray();
+        for (JSONObject fileJSON : fileJSONs) {
+            JSONArray probesJSON = fileJSON.getJSONArray("probes");
+            for (int i = 0; i < probesJSON.length(); i++) {
+                JSONArray examplesJSON = probesJSON.getJSONObject(i).getJSONArray("examples");
+                for (int j = 0; j < examplesJSON.length(); j++) {
+                    examplesJSON.getJSONObject(j).put("startIndex", 0);
+                }
+            }
+            filesJSON.put(fileJSON);
+        }
+        return createDelta(filesJSON);
+    }
+
+    private JSONObject createDelta(JSONArray filesJSON) {
+        JSONObject json = new JSONObject();
+        json.put("epoch", epoch);
+        json.put("analysisId", analysisId);
+        json.put("sequenceNumber", ++sequenceNumber);
+        if (encoding == Encoding.BINARY) {
+            BinaryResultCodec.Writer writer = new BinaryResultCodec.Writer();
+            writer.writeUnsigned(filesJSON.length());
+            for (int i = 0; i < filesJSON.length(); i++) {
+                writer.writeFile(filesJSON.getJSONObject(i));
+            }
+            json.put("encoding", "binary");
+            json.put("data", Base64.getEncoder().encodeToString(writer.toByteArray()));
+        } else {
+            json.put("files", filesJSON);
+        }
+        return json;
+    }
+
+    /**
+     * Stops encoding deltas. No delta is returned once this method returned, so that deltas
+     * never arrive after the final result of the analysis.
+     */
+    public synchronized void close() {
+        isClosed = true;
+    }
+
+    /**
+     * Returns the observation count of the log sent so far and records that the given count has
+     * been sent.
+     */
+    long updateSentCount(ObservationLog log, long count) {
+        Long sentCount = sentCounts.put(log, count);
+        return sentCount == null ? 0 : sentCount;
+    }
+}
@@ -15,17 +15,74 @@ import * as utils from './utils';
 function displayExpression() {
     const editor = vscode.window.activeTextEditor;
     if (editor){
-        const selection = editor.selection;
-        if (selection) {
-            let selectedRange: vscode.Range;
-            if (selection.start.compareTo(selection.end) === 0) {
-                selectedRange = editor.document.lineAt(selection.start.line).range;
+        const selectedRanges = editor.selections.map(selection => selection.isEmpty ? editor.document.lineAt(selection.start.line).range : selection);
+        if (selectedRanges.length > 1) {
+            requestDisplayExpressions(editor, selectedRanges);
+        } else if (selectedRanges.length === 1) {
+            requestDisplayExpression(editor, selectedRanges[0]);
+        }
+    }
+}
+
+/**
+ * Displays the expressions of all selections with a single request and inserts each result
+ * after its selection.
+ */
+function requestDisplayExpressions(editor: vscode.TextEditor, selectedRanges: vscode.Range[]): Promise<boolean> {
+    const sortedRanges = selectedRanges.slice().sort((a, b) => a.end.compareTo(b.end));
+    const expressions = sortedRanges.map(range => editor.document.getText(range));
+    return new Promise<boolean>((resolve) => {
+        vscode.commands.getCommands().then((allCommands: string[]) => {
+            if (allCommands.includes('display_expressions')) {
+                const disposable = vscode.window.setStatusBarMessage('Executing expressions...');
+                vscode.commands.executeCommand('display_expressions', pathToFileURL(editor.document.uri.fsPath), ...expressions).then((result) => {
+                    disposable.dispose();
+                    if (result) {
+                        const infos = result as ObjectInformation[];
+                        const texts = infos.map(info => info.error ? info.error : info.displayString);
+                        editor.edit(builder => sortedRanges.forEach((range, i) => builder.insert(range.end, texts[i]))).then(() => {
+                            editor.selections = toInsertedSelections(sortedRanges.map(range => range.end), texts);
+                            updateObjectExplorer(infos[infos.length - 1]);
+                            resolve(true);
+                        });
+                    } else {
+                        resolve(false);
+                    }
+                });
             } else {
-                selectedRange = selection;
+                requestDisplayExpression(editor, selectedRanges[0]).then(resolve);
             }
-            requestDisplayExpression(editor, selectedRange);
+        });
+    });
+}
+
+/**
+ * Selects each text inserted at its position, with positions in ascending order before the
+ * insertion.
+ */
+function toInsertedSelections(positions: vscode.Position[], texts: string[]): vscode.Selection[] {
+    const selections: vscode.Selection[] = [];
+    let lineDelta = 0;
+    let characterDelta = 0;
+    let lastLine = -1;
+    positions.forEach((position, i) => {
+        if (position.line !== lastLine) {
+            characterDelta = 0;
         }
-    }
+        const start = new vscode.Position(position.line + lineDelta, position.character + characterDelta);
+        const textLines = texts[i].split(/\r\n|\r|\n/);
+        let end;
+        if (textLines.length === 1) {
+            end = start.translate(0, texts[i].length);
+        } else {
+            end = new vscode.Position(start.line + textLines.length - 1, textLines[textLines.length - 1].length);
+        }
+        characterDelta = end.character - position.character;
+        lineDelta += textLines.length - 1;
+        lastLine = position.line;
+        selections.push(new vscode.Selection(start, end));
+    });
+    return selections;
 }
 
 function requestDisplayExpression(editor: vscode.TextEditor, selectedRange: vscode.Range): Promise<boolean> {
@@ -64,7 +64,8 @@ export function updateObjectExplorer(info: ObjectInformation) {
             }
         }
         members.sort((a, b) => a.label! > b.label! ? 1 : -1);
-        currentObjectInfo.push(new ObjectExplorerItem(`${members.length}`, 'interopMember(s)', 'package', members));
+        pushTruncationItem(members, info.memberCount);
+        currentObjectInfo.push(new ObjectExplorerItem(countText(members.length, info.memberCount), 'interopMember(s)', 'package', members));
     }
     if (info.elements) {
         let elements: ObjectExplorerItem[] = [];
@@ -74,12 +75,29 @@ export function updateObjectExplorer(info: ObjectInformation) {
                 elements.push(new ObjectExplorerItem(element, `#${index}`));
             }
         }
-        currentObjectInfo.push(new ObjectExplorerItem(`${elements.length}`, 'interopElement(s)', 'list-ordered', elements));
+        pushTruncationItem(elements, info.elementCount);
+        currentObjectInfo.push(new ObjectExplorerItem(countText(info.elements.length, info.elementCount), 'interopElement(s)', 'list-ordered', elements));
+    }
+    if (info.detailsAfterObservation && (info.memberNames || info.elements)) {
+        currentObjectInfo.push(new ObjectExplorerItem('Members and elements show a later state', 'read after the value was observed', 'history'));
+    }
+    if (info.detailsError) {
+        currentObjectInfo.push(new ObjectExplorerItem(info.detailsError, 'detailsError', 'error'));
     }
     objectExplorerProvider.refresh();
     objectExplorerView.reveal(currentObjectInfo[0], { focus: false, select: false });
 }
 
+function countText(count: number, totalCount?: number): string {
+    return totalCount !== undefined && totalCount > count ? `${count} of ${totalCount}` : `${count}`;
+}
+
+function pushTruncationItem(items: ObjectExplorerItem[], totalCount?: number) {
+    if (totalCount !== undefined && totalCount > items.length) {
+        items.push(new ObjectExplorerItem('\u2026', `${totalCount - items.length} more not shown`, 'ellipsis'));
+    }
+}
+
 class ObjectExplorerTreeDataProvider implements vscode.TreeDataProvider<vscode.TreeItem> {
     getTreeItem(element: ObjectExplorerItem): ObjectExplorerItem|Thenable<ObjectExplorerItem> {
         return element;
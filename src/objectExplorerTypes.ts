@@ -14,4 +14,9 @@ export interface ObjectInformation {
     readonly memberNames?: string[];
     readonly memberDisplayStrings?: string[];
     readonly elements?: string[];
+    readonly hasMembers?: boolean;
+    readonly memberCount?: number;
+    readonly elementCount?: number;
+    readonly detailsError?: string;
+    readonly detailsAfterObservation?: boolean;
 }